@@ -0,0 +1,145 @@
+package org.lru.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ARC, Adaptive Replacement Cache (Megiddo &amp; Modha).
+ * 
+ * The level is split between T1 (nodes read once) and T2 (nodes read at least
+ * twice). The keys evicted from each list are remembered in the ghost lists
+ * B1 and B2. Inserting a key remembered by B1 means T1 was too small and
+ * moves the target size of T1 up, a key remembered by B2 moves it down. So
+ * the split adapts between recency and frequency, and a scan (which only
+ * feeds T1) cannot flush T2.
+ * 
+ * @author pazinio
+ * 
+ * @param <K>
+ * @param <V>
+ */
+final class ArcPolicy<K, V> implements EvictionPolicy<K, V> {
+
+	private int capacity;
+
+	/** The target size of T1 */
+	private int p;
+
+	/** Whether the last inserted key was remembered by B2 (breaks the tie of REPLACE) */
+	private boolean insertedFromB2;
+
+	/** Access ordered, the eldest entry is the least recently used */
+	private final Map<K, Node<K, V>> t1 = new LinkedHashMap<K, Node<K, V>>(16, 0.75f, true);
+	private final Map<K, Node<K, V>> t2 = new LinkedHashMap<K, Node<K, V>>(16, 0.75f, true);
+
+	/** Ghost keys, insertion ordered */
+	private final Set<K> b1 = new LinkedHashSet<K>();
+	private final Set<K> b2 = new LinkedHashSet<K>();
+
+	ArcPolicy(int capacity) {
+		this.capacity = capacity;
+	}
+
+	@Override
+	public void onInsert(Node<K, V> node) {
+		insertedFromB2 = false;
+
+		// The key may still be held when writes are applied out of order
+		if (t2.containsKey(node.key) || t1.remove(node.key) != null) {
+			t2.put(node.key, node);
+		} else if (b1.remove(node.key)) {
+			p = Math.min(capacity, p + Math.max(b2.size() / Math.max(b1.size(), 1), 1));
+			t2.put(node.key, node);
+		} else if (b2.remove(node.key)) {
+			p = Math.max(0, p - Math.max(b1.size() / Math.max(b2.size(), 1), 1));
+			t2.put(node.key, node);
+			insertedFromB2 = true;
+		} else {
+			t1.put(node.key, node);
+		}
+	}
+
+	@Override
+	public void onUpdate(Node<K, V> prior, Node<K, V> node) {
+		if (t1.remove(prior.key, prior) || t2.remove(prior.key, prior)) {
+			// An update is a second reference
+			t2.put(node.key, node);
+		} else {
+			onInsert(node);
+		}
+	}
+
+	@Override
+	public void onAccess(Node<K, V> node) {
+		if (t1.remove(node.key, node)) {
+			t2.put(node.key, node);
+		} else {
+			t2.get(node.key);
+		}
+	}
+
+	@Override
+	public void onRemove(Node<K, V> node) {
+		if (!t1.remove(node.key, node)) {
+			t2.remove(node.key, node);
+		}
+	}
+
+	@Override
+	public Node<K, V> victim() {
+		boolean fromT1 = !t1.isEmpty()
+				&& (t1.size() > p || (insertedFromB2 && t1.size() == p) || t2.isEmpty());
+		return fromT1 ? eldest(t1) : eldest(t2);
+	}
+
+	@Override
+	public void onEvict(Node<K, V> victim) {
+		if (t1.remove(victim.key, victim)) {
+			b1.add(victim.key);
+		} else if (t2.remove(victim.key, victim)) {
+			b2.add(victim.key);
+		}
+		trimGhosts();
+	}
+
+	@Override
+	public int size() {
+		return t1.size() + t2.size();
+	}
+
+	@Override
+	public void setCapacity(int capacity) {
+		this.capacity = capacity;
+		this.p = Math.min(p, capacity);
+		trimGhosts();
+	}
+
+	private void trimGhosts() {
+		// |T1| + |B1| <= c and |T1| + |T2| + |B1| + |B2| <= 2c
+		while (!b1.isEmpty() && t1.size() + b1.size() > capacity) {
+			removeEldest(b1);
+		}
+		while (!b2.isEmpty() && t1.size() + t2.size() + b1.size() + b2.size() > 2 * capacity) {
+			removeEldest(b2);
+		}
+	}
+
+	private static <K, V> Node<K, V> eldest(Map<K, Node<K, V>> list) {
+		Iterator<Node<K, V>> it = list.values().iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+
+	private static <K> void removeEldest(Set<K> ghosts) {
+		Iterator<K> it = ghosts.iterator();
+		it.next();
+		it.remove();
+	}
+
+	@Override
+	public String toString() {
+		return "{p=" + p + ", t1=" + t1 + ", t2=" + t2 + "}";
+	}
+}
@@ -1,7 +1,32 @@
 package org.lru.cache;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.BiConsumer;
 import org.apache.log4j.Logger;
 
 /**
@@ -11,8 +36,62 @@ import org.apache.log4j.Logger;
  * 
  * Each bean identified by a Context. Depending on the specific bean definition,
  * get method could be blocking in case another client(thread) is looking for
- * the same bean object at the same time, The lock continues while the first
- * client doesn't ends the bean populations.
+ * the same bean object (same command) at the same time, The wait continues while
+ * the first client doesn't ends the bean populations. Clients of other commands
+ * never wait for each other (per command in-flight future, no lock striping).
+ * 
+ * getAll is the batch flavor of get: the misses of many commands are populated
+ * by a single call of a {@link BulkBeanPopulator}.
+ * 
+ * getAsync is the non-blocking flavor of get: a client never waits, it gets a
+ * future which completes once the bean is populated (by the populate executor
+ * or by whoever populates the same command at the time).
+ * 
+ * No monitor is held while a populator runs or while a client waits for it
+ * (in-flight futures only), so get is safe to call from virtual threads: a
+ * virtual thread blocked in a populator never pins its carrier thread. The
+ * populate executor itself may run on virtual threads (JDK 21), see
+ * {@link PopulateExecutors}.
+ * 
+ * Miss coalescing (optional): when a coalescing window is configured, the misses
+ * of commands of a class which has a registered bulk populator are grouped
+ * within the window (up to a maximum batch) and populated by a single bulk
+ * call, trading a little latency for far fewer backend calls on cold starts.
+ * 
+ * Max age (optional): a bean older than the configured max age is populated
+ * again. Serve stale (optional): within the stale-while-revalidate grace an
+ * expired bean, or a bean of another context, is still returned while a single
+ * background populate replaces it; within the stale-if-error grace the last
+ * bean is returned when its populator fails, instead of the failure.
+ * 
+ * Negative caching (optional): a populator failure is remembered per command
+ * and the command backs off exponentially (with jitter), meanwhile its
+ * populates fail fast with the remembered failure instead of calling the
+ * failing backend again, until the next probe.
+ * 
+ * Populate deadlines (optional): a populate timeout per call, per command class
+ * or by configuration bounds how long get waits for the populator of another
+ * caller, see
+ * {@link #get(Command, Context, BeanPopulator, boolean, long, TimeUnit)}.
+ * 
+ * Cached beans are versioned by the start of their populate and installed by
+ * compare and set, so a forcedPopulate runs apart from the populates in flight
+ * (readers never wait for it) and a slow populate never overwrites a bean
+ * whose populate started later.
+ * 
+ * Multi-context entries (optional): by default a bean of another context is a
+ * miss and its populate replaces the cached bean. When more contexts per
+ * command are configured, the beans of that many contexts are kept under the
+ * command (the least recently used context is dropped), so interleaved
+ * contexts of the same command all hit.
+ * 
+ * Invalidation: invalidate(Context) and invalidateAll() start a new epoch in
+ * constant time, the beans populated in an earlier epoch are misses from then
+ * on (the version of a bean doubles as the epoch it was populated in).
+ * 
+ * Refresh after write (optional): once a bean is older than the configured age,
+ * the next get still returns it immediately but also triggers a single
+ * background populate of it, so hot beans never pay the populate latency.
  * 
  * @author pazinio
  */
@@ -20,49 +99,129 @@ final public class BeanFactory {
 
 	// Constants
 	private static final Configuration CONFIG	= Configuration.instance();
-	private static final int     LOCKS 		= CONFIG.getCacheLocksNum();
 	private static final int []  CACHE_CAPACITIES	= CONFIG.getCacheCapacities();
 	private static final boolean CACHE_STATISTICS 	= CONFIG.getCacheStatistics();
+	private static final boolean CACHE_OVERFLOW 	= CONFIG.getCacheOverflow();
+	private static final int     CACHE_SHARED_CAPACITY	= CONFIG.getCacheSharedCapacity();
+	private static final int []  CACHE_MINIMUM_CAPACITIES	= CONFIG.getCacheMinimumCapacities();
+	private static final int []  CACHE_MAXIMUM_CAPACITIES	= CONFIG.getCacheMaximumCapacities();
+	private static final boolean CACHE_ADAPTIVE 	= CONFIG.getCacheAdaptiveCapacities();
+	private static final double  CACHE_MISS_RATIO_SAMPLE_RATE	= CONFIG.getCacheMissRatioSampleRate();
+	private static final long    REFRESH_AFTER_WRITE	= TimeUnit.MILLISECONDS.toNanos(CONFIG.getCacheRefreshAfterWriteMillis());
+	private static final int     POPULATE_THREADS	= CONFIG.getCachePopulateThreads();
+	private static final boolean POPULATE_VIRTUAL_THREADS	= CONFIG.getCachePopulateVirtualThreads();
+	private static final long    COALESCE_WINDOW	= TimeUnit.MICROSECONDS.toNanos(CONFIG.getCacheCoalesceWindowMicros());
+	private static final int     COALESCE_MAX_BATCH	= CONFIG.getCacheCoalesceMaxBatch();
+	private static final long    MAX_AGE	= TimeUnit.MILLISECONDS.toNanos(CONFIG.getCacheMaxAgeMillis());
+	private static final long    STALE_WHILE_REVALIDATE	= TimeUnit.MILLISECONDS.toNanos(CONFIG.getCacheStaleWhileRevalidateMillis());
+	private static final long    STALE_IF_ERROR	= TimeUnit.MILLISECONDS.toNanos(CONFIG.getCacheStaleIfErrorMillis());
+	private static final long    FAILURE_BACKOFF	= TimeUnit.MILLISECONDS.toNanos(CONFIG.getCacheFailureBackoffMillis());
+	private static final long    FAILURE_BACKOFF_MAX	= TimeUnit.MILLISECONDS.toNanos(CONFIG.getCacheFailureBackoffMaxMillis());
+	private static final long    POPULATE_TIMEOUT	= TimeUnit.MILLISECONDS.toNanos(CONFIG.getCachePopulateTimeoutMillis());
+	private static final int     CONTEXTS_PER_COMMAND	= Math.max(1, CONFIG.getCacheContextsPerCommand());
+	private static final long    NO_DEADLINE 	= Long.MAX_VALUE;
+	private static final int     CONTEXT_EPOCHS 	= 1024;	// power of 2
 	private static final Logger logger		= Logger.getLogger(BeanFactory.class);
 	private static final Object NOT_POPULATED 	= null;
 
 	// Members
 	final private Cache<Command<?>, BeanWrapper, Priorities> cache;
 	final private BeanToContextBindings bindings;
-	final private Object syncLocks[];
+	final private ConcurrentMap<Command<?>, CompletableFuture<BeanWrapper>> inFlight;
+	final private ExecutorService populateExecutor;
+	final private ScheduledExecutorService deadlineTimer;
+	final private ConcurrentMap<Command<?>, Boolean> refreshing;
+	final private ConcurrentMap<Class<?>, BulkBeanPopulator<?>> bulkPopulators;
+	final private MissCoalescer coalescer;
+	final private FailureBackoff<Command<?>> failures;
+	final private ConcurrentMap<Class<?>, Long> populateTimeouts;
+	final private AtomicLong versions;
+	final private AtomicLongArray contextEpochs;
+	final private AtomicLong epoch;
 
 
 	//Private C'tor
 	private BeanFactory() {
-		cache = new Cache<Command<?>, BeanWrapper, BeanFactory.Priorities>(
-				CACHE_CAPACITIES, Priorities.class);
+		CacheSpec<Priorities> spec = new CacheSpec<Priorities>(CACHE_CAPACITIES, Priorities.class);
+		if (CACHE_OVERFLOW) {
+			spec.overflow();
+		}
+		if (CACHE_SHARED_CAPACITY > 0) {
+			// The configured capacities become the caps of the levels
+			spec.sharedCapacity(CACHE_SHARED_CAPACITY);
+		}
+		else if (CACHE_ADAPTIVE) {
+			// The configured capacities are the initial ones
+			spec.adaptive();
+			for (Priorities priority : Priorities.values()) {
+				if (CACHE_MAXIMUM_CAPACITIES != null)
+					spec.maximumCapacity(priority, CACHE_MAXIMUM_CAPACITIES[priority.ordinal()]);
+			}
+		}
+		for (Priorities priority : Priorities.values()) {
+			if (CACHE_MINIMUM_CAPACITIES != null)
+				spec.minimumCapacity(priority, CACHE_MINIMUM_CAPACITIES[priority.ordinal()]);
+		}
+		if (CACHE_MISS_RATIO_SAMPLE_RATE > 0) {
+			spec.sampleMissRatio(CACHE_MISS_RATIO_SAMPLE_RATE);
+		}
+		cache = new Cache<Command<?>, BeanWrapper, BeanFactory.Priorities>(spec);
 		
 		
-		syncLocks = new Object[LOCKS];
-		for (int i = 0; i < syncLocks.length; i++) {
-			syncLocks[i] = new Object();
-		}
+		inFlight = new ConcurrentHashMap<Command<?>, CompletableFuture<BeanWrapper>>();
 		
 		bindings = BeanToContextBindings.getInstance();
 		
+		populateExecutor = PopulateExecutors.newPopulateExecutor(POPULATE_VIRTUAL_THREADS, POPULATE_THREADS);
+		deadlineTimer = PopulateExecutors.newDeadlineTimer();
+		refreshing = new ConcurrentHashMap<Command<?>, Boolean>();
+		
+		bulkPopulators = new ConcurrentHashMap<Class<?>, BulkBeanPopulator<?>>();
+		coalescer = (COALESCE_WINDOW > 0) ? new MissCoalescer(COALESCE_WINDOW, COALESCE_MAX_BATCH) : null;
+		failures = new FailureBackoff<Command<?>>(FAILURE_BACKOFF, FAILURE_BACKOFF_MAX, totalCapacity());
+		populateTimeouts = new ConcurrentHashMap<Class<?>, Long>();
+		versions = new AtomicLong();
+		contextEpochs = new AtomicLongArray(CONTEXT_EPOCHS);
+		epoch = new AtomicLong();
+		
 		printCahceCapacities();
 	}
 
-	// The Only Public method !
 	final public Object get(Command<?> command, Context context, BeanPopulator<?> populate, boolean forcedPopulate){
+		return get(command, context, populate, forcedPopulate, getPopulateTimeout(command), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * get, bounded by a deadline: a caller which populates the bean runs the
+	 * populator on its own thread (with its thread locals, and without taking
+	 * a pooled thread which a nested get may need), which is interrupted once
+	 * the timeout elapses, its in-flight populate is failed and removed at
+	 * once so that later callers populate again. A caller which waits for
+	 * another one's populator gives up waiting. Either way the caller gets a
+	 * stale bean (within the stale-if-error grace) or a
+	 * FunctionalAPIInternalError.
+	 * 
+	 * @param timeout
+	 *            0 for no deadline.
+	 */
+	final public Object get(Command<?> command, Context context, BeanPopulator<?> populate, boolean forcedPopulate, long timeout, TimeUnit unit){
 		accessCount.incrementAndGet();
+		long deadline = (timeout > 0) ? System.nanoTime() + unit.toNanos(timeout) : NO_DEADLINE;
 		
 		Object bean = NOT_POPULATED; 
 		
 		//In case forcedRefresh is set bean will not be retrieved from cache (even if it exists there),
 		//but cache will be updated with the latest bean at any case
-		if (!forcedPopulate){ 
-			bean = getBeanFromCache(command, context);
+		if (forcedPopulate){ 
+			bean = forcePopulate(command, context, populate, deadline);
 		}
-		
-		//Double-checked locking
-		if (bean == NOT_POPULATED) {
-			bean = populateBean(command, context, populate, forcedPopulate);
+		else {
+			bean = getBeanFromCache(command, context, populate);
+			
+			//Double-checked (single flight per command)
+			if (bean == NOT_POPULATED) {
+				bean = populateBean(command, context, populate, deadline);
+			}
 		}
 		
 		if (CACHE_STATISTICS == true)
@@ -71,19 +230,227 @@ final public class BeanFactory {
 		return bean;
 	}
 
+	/**
+	 * Invalidates the beans of the context at once (in constant time): the
+	 * context starts a new epoch, and the beans whose populate started in an
+	 * earlier one are misses from now on (they are replaced by their next
+	 * populate, or evicted in the meantime).
+	 * 
+	 * The contexts are grouped by hash, so the beans of other contexts of the
+	 * same group may be invalidated too.
+	 */
+	final public void invalidate(Context context) {
+		long now = versions.incrementAndGet();
+		contextEpochs.accumulateAndGet(contextGroup(context), now, Math::max);
+	}
+
+	/**
+	 * Invalidates all the beans at once, see {@link #invalidate(Context)}.
+	 */
+	final public void invalidateAll() {
+		epoch.accumulateAndGet(versions.incrementAndGet(), Math::max);
+	}
+
+	/**
+	 * Sets the default populate timeout of the commands of a class (instead of
+	 * the configured one), 0 for no deadline.
+	 */
+	final public void setPopulateTimeout(Class<? extends Command<?>> commandClass, long timeout, TimeUnit unit) {
+		populateTimeouts.put(commandClass, unit.toNanos(timeout));
+	}
+
+	/**
+	 * Registers the bulk populator of a command class, which the misses of
+	 * commands of that class are coalesced into (when a coalescing window is
+	 * configured), instead of calling their own populators one by one.
+	 */
+	final public void setBulkPopulator(Class<? extends Command<?>> commandClass, BulkBeanPopulator<?> populate) {
+		if (populate == null) {
+			bulkPopulators.remove(commandClass);
+		} else {
+			bulkPopulators.put(commandClass, populate);
+		}
+	}
+
+	/**
+	 * Batch get: the cached beans are looked up at once, and all the missing
+	 * ones are populated by a single call of the bulk populator (apart from
+	 * the commands which are populated by other clients at the time, which
+	 * are waited for). Like get, an old bean (due for a refresh, or within
+	 * the stale-while-revalidate grace) is returned while it is populated
+	 * again in the background.
+	 * 
+	 * @return the beans in the commands iteration order, a command which the
+	 *         populator has no bean for maps to null.
+	 */
+	final public Map<Command<?>, Object> getAll(Collection<? extends Command<?>> commands, Context context, BulkBeanPopulator<?> populate){
+		accessCount.addAndGet(commands.size());
+		
+		Map<Command<?>, BeanWrapper> cached = cache.getAll(commands);
+		Map<Command<?>, Object> beans = new LinkedHashMap<Command<?>, Object>();
+		Set<Command<?>> misses = new LinkedHashSet<Command<?>>();
+		
+		for (Command<?> command : commands) {
+			BeanWrapper wrapper = selectContext(cached.get(command), context);
+			if (isValidWrapperAndContext(context, wrapper) && wrapper.value != NOT_POPULATED) {
+				marksBeanFoundInCache(wrapper.value);
+				if (needsRefresh(wrapper)) {
+					refreshBean(command, context, singlePopulator(command, populate));
+				}
+				beans.put(command, wrapper.value);
+			} else if (isServableStale(context, wrapper, STALE_WHILE_REVALIDATE)) {
+				//Stale while revalidate
+				markStaleBeanServed(wrapper.value);
+				refreshBean(command, context, singlePopulator(command, populate));
+				beans.put(command, wrapper.value);
+			} else {
+				beans.put(command, NOT_POPULATED);
+				misses.add(command);
+			}
+		}
+		
+		if (!misses.isEmpty()) {
+			beans.putAll(populateBeans(misses, context, populate));
+		}
+		
+		if (CACHE_STATISTICS == true)
+			printCahceStatistics();
+		
+		return beans;
+	}
+
+	/**
+	 * Non-blocking get: a cached bean completes the returned future at once,
+	 * otherwise the bean is populated on the populate executor (or joins the
+	 * populate which is already in flight for the same command).
+	 * 
+	 * The future fails with FunctionalAPIActionFailedException or
+	 * FunctionalAPIInternalError, as get does.
+	 */
+	final public CompletableFuture<Object> getAsync(Command<?> command, Context context, BeanPopulator<?> populate){
+		return getAsync(command, context, populate, populateExecutor);
+	}
+
+	/**
+	 * Non-blocking get, see {@link #getAsync(Command, Context, BeanPopulator)}.
+	 * 
+	 * executor - runs the populator in case this call is the one to populate the bean 
+	 */
+	final public CompletableFuture<Object> getAsync(Command<?> command, Context context, BeanPopulator<?> populate, Executor executor){
+		accessCount.incrementAndGet();
+		
+		Object bean = getBeanFromCache(command, context, populate);
+		
+		CompletableFuture<Object> future;
+		if (bean != NOT_POPULATED) {
+			future = CompletableFuture.completedFuture(bean);
+		} else {
+			future = new CompletableFuture<Object>();
+			populateBeanAsync(command, context, populate, executor, future);
+		}
+		
+		if (CACHE_STATISTICS == true)
+			printCahceStatistics();
+		
+		return future;
+	}
+
 
 	// Private methods
-	private Object getBeanFromCache(Command<?> command, Context context) {
-		BeanWrapper cacheObjectWrapper = cache.get(command);
+	
+	/**
+	 * populate - when not null, a bean older than REFRESH_AFTER_WRITE is refreshed in the background
+	 */
+	private Object getBeanFromCache(Command<?> command, Context context, BeanPopulator<?> populate) {
+		BeanWrapper cacheObjectWrapper = getWrapper(command, context);
 
 		if (isValidWrapperAndContext(context, cacheObjectWrapper)) {
 			Object value = cacheObjectWrapper.value;
 			marksBeanFoundInCache(value);			
+			
+			if (populate != null && needsRefresh(cacheObjectWrapper)) {
+				refreshBean(command, context, populate);
+			}
 			return value;
 		}
+		
+		//Stale while revalidate
+		if (populate != null && isServableStale(context, cacheObjectWrapper, STALE_WHILE_REVALIDATE)) {
+			markStaleBeanServed(cacheObjectWrapper.value);
+			refreshBean(command, context, populate);
+			return cacheObjectWrapper.value;
+		}
 
 		return null;
 	}
+	
+	private boolean isExpired(BeanWrapper cacheObjectWrapper) {
+		return MAX_AGE > 0 
+				&& System.nanoTime() - cacheObjectWrapper.populatedAt >= MAX_AGE;
+	}
+	
+	/**
+	 * A stale bean (older than MAX_AGE, or of another context) is still
+	 * servable while it is younger than MAX_AGE + grace.
+	 */
+	private boolean isServableStale(Context context, BeanWrapper cacheObjectWrapper, long grace) {
+		if (grace <= 0 || context == null || cacheObjectWrapper == null 
+				|| cacheObjectWrapper.value == NOT_POPULATED || cacheObjectWrapper.context == null
+				|| isInvalidated(cacheObjectWrapper))
+			return false;
+		
+		return System.nanoTime() - cacheObjectWrapper.populatedAt < MAX_AGE + grace;
+	}
+	
+	/** A bean populated before the epoch of its context is invalid */
+	private boolean isInvalidated(BeanWrapper cacheObjectWrapper) {
+		return cacheObjectWrapper.version < epoch.get()
+				|| (cacheObjectWrapper.context != null 
+					&& cacheObjectWrapper.version < contextEpochs.get(contextGroup(cacheObjectWrapper.context)));
+	}
+	
+	private static int contextGroup(Context context) {
+		int h = context.hashCode();
+		return (h ^ (h >>> 16)) & (CONTEXT_EPOCHS - 1);
+	}
+	
+	private boolean needsRefresh(BeanWrapper cacheObjectWrapper) {
+		return REFRESH_AFTER_WRITE > 0 
+				&& System.nanoTime() - cacheObjectWrapper.populatedAt >= REFRESH_AFTER_WRITE;
+	}
+	
+	/**
+	 * Populates the bean on the populate executor, unless a refresh of the same
+	 * command is already in progress. A failed refresh keeps the current bean.
+	 */
+	private void refreshBean(final Command<?> command, final Context context, final BeanPopulator<?> populate) {
+		if (failures.backingOff(command) != null || refreshing.putIfAbsent(command, Boolean.TRUE) != null) {
+			return;
+		}
+		
+		try {
+			populateExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						markBeanRefreshed(command);
+						long version = versions.incrementAndGet();
+						Object value = callPopulator(command, populate);
+						put(command, context, value, getPriority(command), version);
+						failures.succeeded(command);
+					} catch (Exception e) {
+						logger.error("Bean refresh failed !", e);
+						failures.failed(command, e);
+					} finally {
+						refreshing.remove(command);
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			refreshing.remove(command);
+			logger.error("Bean refresh rejected !", e);
+		}
+	}
 
 	private boolean isValidWrapperAndContext(Context context, BeanWrapper cacheObjectWrapper) {
 		if (context == null){
@@ -98,67 +465,517 @@ final public class BeanFactory {
 			contextChanged.incrementAndGet();
 			return false;
 		}
+		
+		if (isExpired(cacheObjectWrapper)){
+			expiredCount.incrementAndGet();
+			return false;
+		}
+		
+		if (isInvalidated(cacheObjectWrapper)){
+			invalidatedCount.incrementAndGet();
+			return false;
+		}
 			
 		return true;
 	}
 	
-	private Object populateBean(Command<?> command, Context context, BeanPopulator<?> populate, boolean forcedPopulate) throws FunctionalAPIActionFailedException, FunctionalAPIInternalError {
-
-		int mod   		= command.hashCode() % (LOCKS/2);
-		int shift 		= LOCKS/2;
-		
-		// fix the result since |D| is always odd in java  
-		int negative	= mod<0?-1:0;
-		
-		 // shift the result since MOD result could be negative in java  Domain:[-LOCKS/2+1, ..., 0, ..., LOCKS/2-1]
-		int index = mod + shift + negative;
+	/**
+	 * Populates the bean apart from the populates in flight, so readers never
+	 * wait for a forced populate (nor a forced populate for them).
+	 */
+	private Object forcePopulate(Command<?> command, Context context, BeanPopulator<?> populate, long deadline) throws FunctionalAPIActionFailedException, FunctionalAPIInternalError {
+		long version = versions.incrementAndGet();
+		try {
+			markCachableBeanNotFound(command);
+			Object value = callPopulator(command, populate, null, deadline);
+			put(command, context, value, getPriority(command), version);
+			failures.succeeded(command);
+			return value;
+		} catch (Exception e) {
+			logger.error("Bean populator failed !", e);
+			failures.failed(command, e);
+			throw toFunctionalException(e);
+		}
+	}
+	
+	private Object populateBean(Command<?> command, Context context, BeanPopulator<?> populate, long deadline) throws FunctionalAPIActionFailedException, FunctionalAPIInternalError {
 
 		/*
-		 * NOTE: only commands with the same hashCode will be blocked while
-		 * there is still populateBean in progress(the hashCode value represents
-		 * the actual command data members value)
+		 * NOTE: only callers of the same command wait for each other, the first
+		 * one populates the bean while the rest wait on its in-flight future
+		 * (the command equality represents the actual command data members value)
 		 */
-		synchronized (syncLocks[index]) {
-
+		for (;;) {
+			CompletableFuture<BeanWrapper> flight = new CompletableFuture<BeanWrapper>();
+			CompletableFuture<BeanWrapper> inProgress = inFlight.putIfAbsent(command, flight);
+			
+			if (inProgress == null) {
+				return populateInFlight(command, context, populate, flight, deadline);
+			}
+			
+			// A bean of another context is populated again by this caller
+			BeanWrapper wrapper = awaitPopulate(inProgress, deadline);
+			if (wrapper == null) {
+				return onWaitTimedOut(command, context);
+			}
+			if (context != null && context.equals(wrapper.context)) {
+				markCachebleBeanHasBeenFoundDuringBlock(wrapper.value);
+				return wrapper.value;
+			}
+		}
+	}
+	
+	/**
+	 * Populates the bean as the owner of the in-flight future of the command,
+	 * the future is completed (and removed) at any case.
+	 * 
+	 * The future is removed before it is completed, so that a waiter which has
+	 * to populate again (e.g. another context) never joins a completed future.
+	 */
+	private Object populateInFlight(Command<?> command, Context context, BeanPopulator<?> populate,
+			CompletableFuture<BeanWrapper> flight, long deadline) throws FunctionalAPIActionFailedException, FunctionalAPIInternalError {
+		BeanWrapper wrapper = null;
+		Exception failure = null;
+		try {
 			// Second check 
-			Object value = NOT_POPULATED;
+			wrapper = getWrapper(command, context);
+			
+			if (isValidWrapperAndContext(context, wrapper) && wrapper.value != NOT_POPULATED) {
+				markCachebleBeanHasBeenFoundDuringBlock(wrapper.value);
+			}
+			else if ((failure = failures.backingOff(command)) != null) {
+				// Fail fast until the next probe
+				markPopulatorBackingOff(command);
+			}
+			else {
+				markCachableBeanNotFound(command);
+				long version = versions.incrementAndGet();
+				Object value = callPopulator(command, populate, flight, deadline);
+				wrapper = put(command, context, value, getPriority(command), version);
+				failures.succeeded(command);
+			}
+		} catch (Exception e) {
+			logger.error("Bean populator failed !", e);
+			failures.failed(command, e);
+			failure = e;
+		} catch (Error e) {
+			inFlight.remove(command, flight);
+			flight.completeExceptionally(e);
+			throw e;
+		}
+		
+		if (failure != null) {
+			//Stale if error
+			BeanWrapper stale = getWrapper(command, context);
+			if (isServableStale(context, stale, STALE_IF_ERROR)) {
+				markStaleBeanServed(stale.value);
+				inFlight.remove(command, flight);
+				flight.complete(stale);
+				return stale.value;
+			}
 			
-			if (!forcedPopulate) {
-				value = getBeanFromCache(command, context);
+			inFlight.remove(command, flight);
+			flight.completeExceptionally(failure);
+			throw toFunctionalException(failure);
+		}
+		
+		inFlight.remove(command, flight);
+		flight.complete(wrapper);
+		return wrapper.value;
+	}
+	
+	/**
+	 * The bulk flavor of populateBean: the misses which no other client
+	 * populates at the time are populated by a single bulk call, the rest are
+	 * waited for.
+	 */
+	private Map<Command<?>, Object> populateBeans(Set<Command<?>> misses, Context context, BulkBeanPopulator<?> populate) throws FunctionalAPIActionFailedException, FunctionalAPIInternalError {
+		Map<Command<?>, Object> beans = new HashMap<Command<?>, Object>();
+		Map<Command<?>, CompletableFuture<BeanWrapper>> owned = new LinkedHashMap<Command<?>, CompletableFuture<BeanWrapper>>();
+		Map<Command<?>, CompletableFuture<BeanWrapper>> joined = new LinkedHashMap<Command<?>, CompletableFuture<BeanWrapper>>();
+		
+		for (Command<?> command : misses) {
+			CompletableFuture<BeanWrapper> flight = new CompletableFuture<BeanWrapper>();
+			CompletableFuture<BeanWrapper> inProgress = inFlight.putIfAbsent(command, flight);
+			if (inProgress == null) {
+				owned.put(command, flight);
+			} else {
+				joined.put(command, inProgress);
 			}
+		}
+		
+		if (!owned.isEmpty()) {
+			beans.putAll(populateInFlight(owned, context, populate));
+		}
+		
+		for (Map.Entry<Command<?>, CompletableFuture<BeanWrapper>> entry : joined.entrySet()) {
+			Command<?> command = entry.getKey();
+			BeanWrapper wrapper = awaitPopulate(entry.getValue(), NO_DEADLINE);
 			
-			if (value == NOT_POPULATED) {
-				try {
+			if (context != null && context.equals(wrapper.context)) {
+				markCachebleBeanHasBeenFoundDuringBlock(wrapper.value);
+				beans.put(command, wrapper.value);
+			} else {
+				// A bean of another context, populate this one alone
+				beans.put(command, populateBean(command, context, singlePopulator(command, populate), NO_DEADLINE));
+			}
+		}
+		
+		return beans;
+	}
+	
+	/** The populator of a single command, by a bulk call of its own */
+	private static BeanPopulator<Object> singlePopulator(final Command<?> command, final BulkBeanPopulator<?> populate) {
+		return new BeanPopulator<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return populate.call(Collections.<Command<?>>singleton(command)).get(command);
+			}
+		};
+	}
+	
+	/**
+	 * Populates the beans as the owner of their in-flight futures, each bean
+	 * is installed by compare and set like a single one (so it never
+	 * overwrites a newer bean, nor drops the other contexts of its command).
+	 * 
+	 * The commands which back off after a failure are left out of the bulk
+	 * call, they fail fast with their remembered failure. Like a single
+	 * populate, a command which fails (or fails fast) is served stale within
+	 * the stale-if-error grace.
+	 */
+	private Map<Command<?>, Object> populateInFlight(Map<Command<?>, CompletableFuture<BeanWrapper>> owned, Context context,
+			BulkBeanPopulator<?> populate) throws FunctionalAPIActionFailedException, FunctionalAPIInternalError {
+		Map<Command<?>, Object> beans = new HashMap<Command<?>, Object>();
+		Map<Command<?>, BeanWrapper> wrappers = new HashMap<Command<?>, BeanWrapper>();
+		
+		// The failure of each command which is left without a bean
+		Map<Command<?>, Exception> failed = new LinkedHashMap<Command<?>, Exception>();
+		Set<Command<?>> populating = new LinkedHashSet<Command<?>>();
+		for (Command<?> command : owned.keySet()) {
+			Exception failure = failures.backingOff(command);
+			if (failure != null) {
+				// Fail fast until the next probe
+				markPopulatorBackingOff(command);
+				failed.put(command, failure);
+			} else {
+				populating.add(command);
+			}
+		}
+		
+		try {
+			if (!populating.isEmpty()) {
+				long version = versions.incrementAndGet();
+				Map<Command<?>, ?> populated = populate.call(Collections.unmodifiableSet(populating));
+				
+				for (Command<?> command : populating) {
 					markCachableBeanNotFound(command);
-					value = populate.call();
-					put(command, context, value, getPriority(command));
-				} catch (Exception e) {
-					logger.error("Bean populator failed !", e);
-					if (e instanceof FunctionalAPIActionFailedException){
-						throw (FunctionalAPIActionFailedException) e;
-					}
-					else {
-						throw new FunctionalAPIInternalError (FAPIMessages.INTERNAL_ERROR + " " + e.getMessage(), e);
+					Object value = populated.get(command);
+					BeanWrapper wrapper = (value != NOT_POPULATED)
+							? put(command, context, value, getPriority(command), version)
+							: new BeanWrapper(value, context, version);
+					wrappers.put(command, wrapper);
+					beans.put(command, value);
+					failures.succeeded(command);
+				}
+			}
+		} catch (Exception e) {
+			logger.error("Bulk bean populator failed !", e);
+			for (Command<?> command : populating) {
+				if (!wrappers.containsKey(command)) {
+					failures.failed(command, e);
+					failed.put(command, e);
+				}
+			}
+		} catch (Error e) {
+			for (Map.Entry<Command<?>, CompletableFuture<BeanWrapper>> flight : owned.entrySet()) {
+				inFlight.remove(flight.getKey(), flight.getValue());
+				flight.getValue().completeExceptionally(e);
+			}
+			throw e;
+		}
+		
+		Exception failure = null;
+		for (Map.Entry<Command<?>, Exception> entry : failed.entrySet()) {
+			//Stale if error
+			BeanWrapper stale = getWrapper(entry.getKey(), context);
+			if (isServableStale(context, stale, STALE_IF_ERROR)) {
+				markStaleBeanServed(stale.value);
+				wrappers.put(entry.getKey(), stale);
+				beans.put(entry.getKey(), stale.value);
+			} else if (failure == null) {
+				failure = entry.getValue();
+			}
+		}
+		
+		for (Map.Entry<Command<?>, CompletableFuture<BeanWrapper>> flight : owned.entrySet()) {
+			inFlight.remove(flight.getKey(), flight.getValue());
+			BeanWrapper wrapper = wrappers.get(flight.getKey());
+			if (wrapper != null) {
+				flight.getValue().complete(wrapper);
+			} else {
+				flight.getValue().completeExceptionally(failed.get(flight.getKey()));
+			}
+		}
+		
+		if (failure != null) {
+			throw toFunctionalException(failure);
+		}
+		return beans;
+	}
+	
+	/**
+	 * The asynchronous flavor of populateBean, completes the result instead of
+	 * waiting for the in-flight future of the command.
+	 */
+	private void populateBeanAsync(final Command<?> command, final Context context, final BeanPopulator<?> populate,
+			final Executor executor, final CompletableFuture<Object> result) {
+		
+		final CompletableFuture<BeanWrapper> flight = new CompletableFuture<BeanWrapper>();
+		CompletableFuture<BeanWrapper> inProgress = inFlight.putIfAbsent(command, flight);
+		
+		if (inProgress == null) {
+			try {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							populateInFlight(command, context, populate, flight, NO_DEADLINE);
+						} catch (RuntimeException e) {
+							// Already logged, the flight carries the failure
+						} catch (Error e) {
+							// The flight carries the failure
+						}
 					}
+				});
+			} catch (RejectedExecutionException e) {
+				logger.error("Bean populator rejected !", e);
+				inFlight.remove(command, flight);
+				flight.completeExceptionally(e);
+			}
+		}
+		
+		final boolean owner = (inProgress == null);
+		(owner ? flight : inProgress).whenComplete(new BiConsumer<BeanWrapper, Throwable>() {
+			@Override
+			public void accept(BeanWrapper wrapper, Throwable failure) {
+				if (failure != null) {
+					result.completeExceptionally(toFunctionalFailure(failure));
+				} else if (owner || (context != null && context.equals(wrapper.context))) {
+					if (!owner)
+						markCachebleBeanHasBeenFoundDuringBlock(wrapper.value);
+					result.complete(wrapper.value);
+				} else {
+					// A bean of another context, populate again
+					populateBeanAsync(command, context, populate, executor, result);
 				}
 			}
-			else{
-				markCachebleBeanHasBeenFoundDuringBlock(value);
+		});
+	}
+	
+	/**
+	 * Calls the populator of the command, or coalesces the miss with the
+	 * concurrent misses of its command class into the registered bulk populator.
+	 */
+	private Object callPopulator(Command<?> command, BeanPopulator<?> populate) throws Exception {
+		BulkBeanPopulator<?> bulk = (coalescer == null) ? null : bulkPopulators.get(command.getClass());
+		if (bulk == null) {
+			return populate.call();
+		}
+		return coalescer.populate(command, bulk);
+	}
+	
+	/**
+	 * Calls the populator on the caller thread, bounded by the deadline: see
+	 * {@link PopulateDeadline}.
+	 * 
+	 * @param flight
+	 *            the in-flight future owned by the caller, or null.
+	 */
+	private Object callPopulator(Command<?> command, BeanPopulator<?> populate,
+			CompletableFuture<BeanWrapper> flight, long deadline) throws Exception {
+		if (deadline == NO_DEADLINE) {
+			return callPopulator(command, populate);
+		}
+		
+		PopulateDeadline timeout = new PopulateDeadline(command, flight, deadline);
+		try {
+			return callPopulator(command, populate);
+		} catch (Exception e) {
+			if (timeout.finish()) {
+				markPopulateTimedOut(command);
+				throw new TimeoutException("Bean populator timed out [KeyType:" + command.getClass() + "]");
 			}
-			return value;
+			throw e;
+		} finally {
+			timeout.finish();
+		}
+	}
+	
+	/**
+	 * A caller which gave up waiting for the populator of another one gets a
+	 * stale bean, within the stale-if-error grace, or fails.
+	 */
+	private Object onWaitTimedOut(Command<?> command, Context context) throws FunctionalAPIInternalError {
+		markPopulateTimedOut(command);
+		
+		BeanWrapper stale = getWrapper(command, context);
+		if (isServableStale(context, stale, STALE_IF_ERROR)) {
+			markStaleBeanServed(stale.value);
+			return stale.value;
+		}
+		throw new FunctionalAPIInternalError (FAPIMessages.INTERNAL_ERROR + " timed out waiting for bean populator", new TimeoutException());
+	}
+	
+	/**
+	 * @return the populated bean wrapper, or null once the deadline passes.
+	 */
+	private BeanWrapper awaitPopulate(CompletableFuture<BeanWrapper> inProgress, long deadline) throws FunctionalAPIActionFailedException, FunctionalAPIInternalError {
+		try {
+			if (deadline == NO_DEADLINE) {
+				return inProgress.get();
+			}
+			return inProgress.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		} catch (TimeoutException e) {
+			return null;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new FunctionalAPIInternalError (FAPIMessages.INTERNAL_ERROR + " interrupted while waiting for bean populator", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof TimeoutException) {
+				// The populator of the owner timed out
+				return null;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw toFunctionalException((Exception) cause);
+		}
+	}
+	
+	private Throwable toFunctionalFailure(Throwable failure) {
+		if (failure instanceof CompletionException && failure.getCause() != null) {
+			failure = failure.getCause();
+		}
+		return (failure instanceof Exception) ? toFunctionalException((Exception) failure) : failure;
+	}
+	
+	private RuntimeException toFunctionalException(Exception e) {
+		if (e instanceof FunctionalAPIActionFailedException){
+			return (FunctionalAPIActionFailedException) e;
+		}
+		else if (e instanceof FunctionalAPIInternalError){
+			return (FunctionalAPIInternalError) e;
+		}
+		else {
+			return new FunctionalAPIInternalError (FAPIMessages.INTERNAL_ERROR + " " + e.getMessage(), e);
 		}
 	}
 
 	
 
 	//Helper Methods
+	private long getPopulateTimeout(Command<?> command) {
+		Long timeout = populateTimeouts.get(command.getClass());
+		return (timeout == null) ? POPULATE_TIMEOUT : timeout;
+	}
+
 	private Priorities getPriority(Command<?> command) {
 		Priorities priorityLevel = bindings.getClassPriority(command.getClass());
 		return priorityLevel;
 	}
 
-	private void put(Command<?> command, Context context,Object value, Priorities priorityLevel) {
-		cache.put(command, new BeanWrapper(value, context), priorityLevel);
+	/**
+	 * Installs the bean by compare and set against the cached wrapper, unless
+	 * the cached one has been populated by a populate which started later
+	 * (a slow populate never overwrites a newer bean).
+	 * 
+	 * @param version
+	 *            taken when the populate started.
+	 * @return the wrapper of the bean, installed or not.
+	 */
+	private BeanWrapper put(Command<?> command, Context context,Object value, Priorities priorityLevel, long version) {
+		BeanWrapper wrapper = new BeanWrapper(value, context, version);
+		for (;;) {
+			BeanWrapper current = cache.getQuietly(command);
+			BeanWrapper rival = (CONTEXTS_PER_COMMAND > 1) ? findContext(current, context) : current;
+			if (rival != null && rival.version > version) {
+				markOutdatedBeanDiscarded(command);
+				return wrapper;
+			}
+			
+			BeanWrapper chained = chain(wrapper, current);
+			if (current == null ? cache.putIfAbsent(command, chained, priorityLevel) == null 
+					: cache.replace(command, current, chained, priorityLevel)) {
+				return wrapper;
+			}
+		}
+	}
+
+	/**
+	 * @return the cached wrapper of the context, or the wrapper of another
+	 *         context when there is none (an invalid one).
+	 */
+	private BeanWrapper getWrapper(Command<?> command, Context context) {
+		return selectContext(cache.get(command), context);
+	}
+
+	private BeanWrapper selectContext(BeanWrapper cacheObjectWrapper, Context context) {
+		if (cacheObjectWrapper == null || cacheObjectWrapper.others.length == 0)
+			return cacheObjectWrapper;
+		
+		BeanWrapper wrapper = findContext(cacheObjectWrapper, context);
+		if (wrapper == null)
+			return cacheObjectWrapper;
+		
+		wrapper.accessedAt = System.nanoTime();
+		return wrapper;
+	}
+
+	/** @return the wrapper of the context in the chain, or null */
+	private BeanWrapper findContext(BeanWrapper cacheObjectWrapper, Context context) {
+		if (cacheObjectWrapper == null || context == null)
+			return null;
+		
+		if (context.equals(cacheObjectWrapper.context))
+			return cacheObjectWrapper;
+		
+		for (BeanWrapper other : cacheObjectWrapper.others) {
+			if (context.equals(other.context))
+				return other;
+		}
+		return null;
+	}
+
+	/**
+	 * Chains the wrappers of the other contexts of the current wrapper to the
+	 * new one, keeping the CONTEXTS_PER_COMMAND most recently used contexts.
+	 */
+	private BeanWrapper chain(BeanWrapper wrapper, BeanWrapper current) {
+		if (CONTEXTS_PER_COMMAND == 1 || current == null)
+			return wrapper;
+		
+		List<BeanWrapper> others = new ArrayList<BeanWrapper>(current.others.length + 1);
+		// The invalidated contexts are reclaimed here
+		if (!wrapper.sameContext(current) && !isInvalidated(current))
+			others.add(current.withOthers(BeanWrapper.NO_OTHERS));
+		for (BeanWrapper other : current.others) {
+			if (!wrapper.sameContext(other) && !isInvalidated(other))
+				others.add(other);
+		}
+		
+		if (others.size() >= CONTEXTS_PER_COMMAND) {
+			// LRU across the contexts
+			Collections.sort(others, new Comparator<BeanWrapper>() {
+				@Override
+				public int compare(BeanWrapper a, BeanWrapper b) {
+					return Long.compare(b.accessedAt, a.accessedAt);
+				}
+			});
+			others = others.subList(0, CONTEXTS_PER_COMMAND - 1);
+		}
+		return wrapper.withOthers(others.toArray(new BeanWrapper[others.size()]));
 	}
 
 	private void marksBeanFoundInCache(Object val) {
@@ -170,10 +987,42 @@ final public class BeanFactory {
 		logger.debug("Cache: value has been found in cache during blocking..."  + "[BeanType:"+ val.getClass() +"]");
 	}
 
+	private void markBeanRefreshed(Command<?> command) {
+		logger.debug("Cache: refreshing bean in the background " + "[KeyType:"+command.getClass()+"]");
+		refreshCount.incrementAndGet();
+	}
+
+	private void markStaleBeanServed(Object val) {
+		logger.debug("Cache: serving a stale bean " + "[BeanType:"+ val.getClass() +"]");
+		staleCount.incrementAndGet();
+	}
+
+	private void markPopulatorBackingOff(Command<?> command) {
+		logger.debug("Cache: bean populator is backing off after a failure " + "[KeyType:"+command.getClass()+"]");
+		backoffCount.incrementAndGet();
+	}
+
+	private void markPopulateTimedOut(Command<?> command) {
+		logger.debug("Cache: bean populator timed out " + "[KeyType:"+command.getClass()+"]");
+		timeoutCount.incrementAndGet();
+	}
+
+	private void markOutdatedBeanDiscarded(Command<?> command) {
+		logger.debug("Cache: a newer bean has been populated meanwhile, discarding " + "[KeyType:"+command.getClass()+"]");
+	}
+
 	private void markCachableBeanNotFound(Command<?> command) {
 		logger.debug("Cache: value wasn't found, calling bean populator " + "[KeyType:"+command.getClass()+"]");
 	}
 	
+	private static int totalCapacity() {
+		int total = 0;
+		for (int capacity : CACHE_CAPACITIES) {
+			total += capacity;
+		}
+		return total;
+	}
+	
 	private void printCahceCapacities() {
 		logger.debug("Cache: BeanFactory Created - LRU Cache Capacities: "+ Arrays.toString(CACHE_CAPACITIES));
 	}
@@ -188,10 +1037,39 @@ final public class BeanFactory {
 	final static class BeanWrapper {
 		final private Object value;
 		final private Context context;
+		final private long populatedAt;
+		/** Orders the populates by their start, a later one wins (and the epochs) */
+		final private long version;
+		/** The wrappers of the other contexts of the command (multi-context mode) */
+		final private BeanWrapper [] others;
+		private volatile long accessedAt;
+		
+		static final BeanWrapper [] NO_OTHERS = new BeanWrapper[0];
 
-		BeanWrapper(Object value, Context context) {
+		BeanWrapper(Object value, Context context, long version) {
 			this.value = value;
 			this.context = context;
+			this.populatedAt = System.nanoTime();
+			this.version = version;
+			this.others = NO_OTHERS;
+			this.accessedAt = populatedAt;
+		}
+		
+		private BeanWrapper(BeanWrapper wrapper, BeanWrapper [] others) {
+			this.value = wrapper.value;
+			this.context = wrapper.context;
+			this.populatedAt = wrapper.populatedAt;
+			this.version = wrapper.version;
+			this.others = others;
+			this.accessedAt = wrapper.accessedAt;
+		}
+		
+		BeanWrapper withOthers(BeanWrapper [] others) {
+			return new BeanWrapper(this, others);
+		}
+		
+		boolean sameContext(BeanWrapper wrapper) {
+			return (context == null) ? wrapper.context == null : context.equals(wrapper.context);
 		}
 
 	}
@@ -204,6 +1082,12 @@ final public class BeanFactory {
 	final private AtomicInteger accessCount 	= new AtomicInteger(0);
 	final private AtomicInteger nullContext 	= new AtomicInteger(0);
 	final private AtomicInteger contextChanged	= new AtomicInteger(0);
+	final private AtomicInteger refreshCount	= new AtomicInteger(0);
+	final private AtomicInteger expiredCount	= new AtomicInteger(0);
+	final private AtomicInteger staleCount	= new AtomicInteger(0);
+	final private AtomicInteger backoffCount	= new AtomicInteger(0);
+	final private AtomicInteger invalidatedCount	= new AtomicInteger(0);
+	final private AtomicInteger timeoutCount	= new AtomicInteger(0);
 
 	private void printCahceStatistics() {
 		logger.debug("***********CahceStatistics************");
@@ -213,9 +1097,81 @@ final public class BeanFactory {
 		logger.debug("Cache: hitRatio:"  	  + (double)hitCount.get()/accessCount.get());
 		logger.debug("Cache: contextChanged:" + contextChanged.get() + " [Invalidate Bean, context has been changed]");
 		logger.debug("Cache: nullContext:"    + nullContext.get());
+		logger.debug("Cache: refreshCount:"   + refreshCount.get());
+		logger.debug("Cache: expiredCount:"   + expiredCount.get());
+		logger.debug("Cache: staleCount:"     + staleCount.get());
+		logger.debug("Cache: backoffCount:"   + backoffCount.get());
+		logger.debug("Cache: invalidatedCount:" + invalidatedCount.get());
+		if (CACHE_MISS_RATIO_SAMPLE_RATE > 0)
+			printMissRatioCurves();
+		logger.debug("Cache: timeoutCount:"   + timeoutCount.get());
 		logger.debug("**************************************");
 	}
 	
+	private void printMissRatioCurves() {
+		for (Priorities priority : Priorities.values()) {
+			int capacity = cache.capacity(priority);
+			logger.debug("Cache: " + priority + " estimated missRatio at capacity x0.5/x1/x2/x4:"
+					+ " " + cache.missRatio(priority, capacity / 2)
+					+ " " + cache.missRatio(priority, capacity)
+					+ " " + cache.missRatio(priority, capacity * 2)
+					+ " " + cache.missRatio(priority, capacity * 4));
+		}
+	}
+	
+	/**
+	 * Bounds a populator which runs on the caller thread: once the deadline
+	 * passes, the in-flight future of the command (if any) is failed and
+	 * removed, so that the waiters give up and later callers populate again
+	 * even when the populator ignores the interrupt, and the populating
+	 * thread is interrupted.
+	 */
+	private final class PopulateDeadline implements Runnable {
+		private final Thread populating = Thread.currentThread();
+		private final Command<?> command;
+		private final CompletableFuture<BeanWrapper> flight;
+		private final ScheduledFuture<?> timer;
+		
+		/** Guarded by this */
+		private boolean running = true;
+		private boolean expired;
+		
+		PopulateDeadline(Command<?> command, CompletableFuture<BeanWrapper> flight, long deadline) {
+			this.command = command;
+			this.flight  = flight;
+			this.timer   = deadlineTimer.schedule(this, deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+		}
+		
+		@Override
+		public synchronized void run() {
+			if (!running) {
+				return;
+			}
+			
+			expired = true;
+			if (flight != null && inFlight.remove(command, flight)) {
+				flight.completeExceptionally(new TimeoutException("Bean populator timed out [KeyType:" + command.getClass() + "]"));
+			}
+			populating.interrupt();
+		}
+		
+		/**
+		 * Stops the timer, the interrupt it may have raised is cleared.
+		 * 
+		 * @return true once the deadline passed while the populator was running.
+		 */
+		synchronized boolean finish() {
+			if (running) {
+				running = false;
+				timer.cancel(false);
+				if (expired) {
+					Thread.interrupted();
+				}
+			}
+			return expired;
+		}
+	}
+	
 	/**
 	 * BeanFactoryHolder is loaded on the first execution of
 	 * Singleton.getInstance() or the first access to SingletonHolder.INSTANCE,
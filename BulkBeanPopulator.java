@@ -0,0 +1,15 @@
+package org.lru.cache;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Populates the beans of many commands at once (e.g. a single backend round
+ * trip), the bulk flavor of {@link BeanPopulator}.
+ * 
+ * A command which is missing from the result has no bean, it is not cached.
+ */
+public interface BulkBeanPopulator<Bean> {
+
+	Map<Command<?>, Bean> call(Set<Command<?>> commands) throws Exception;
+}
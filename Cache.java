@@ -1,106 +1,907 @@
 package org.lru.cache;
 
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiFunction;
+import java.util.function.Function;
 
 
 /**
  * Represent a thread-safe and size based(LRU, categories divided) cache.
- * 
+ *
  * The removing policy involved two mechanism: <br>
  * 1. Priorities(Categories)    <br>
- * 2. LRU (least recently used) <br>
- * 
+ * 2. LRU (least recently used) by default, or another {@link Eviction} policy per priority,
+ *    optionally behind a W-TinyLFU admission filter <br>
+ *
+ * Each priority level is bounded by its capacity (number of entries) and,
+ * optionally, by a maximum weight as calculated by a {@link Weigher}.
+ *
+ * Entries may also expire after write and after access (per priority or per
+ * entry). An expired entry is never returned, it is removed by a
+ * {@link TimerWheel} during the maintenance which follows writes.
+ *
  * The cache holds specific dedicated data structure for each category/priority object.
  * In other words, if for example the lowest priority cache reaches its limit
  * the eldest entry with the lowest priority will be removed and so other
  * priorities level respectively.
- * 
+ *
+ * Elastic capacities (optional, see {@link CacheSpec#sharedCapacity(int)}): the
+ * levels share a total capacity within their own minimum and maximum, the
+ * lowest priority levels give their room back first.
+ *
+ * Miss ratio curves (optional, see {@link CacheSpec#sampleMissRatio(double)}):
+ * the references of a sample of the keys estimate the miss ratio which each
+ * level would have at other sizes.
+ *
+ * Adaptive capacities (optional, see {@link CacheSpec#adaptive()}): the
+ * capacity is shifted periodically toward the levels whose ghost lists (their
+ * recently evicted keys) are hit the most.
+ *
+ * Overflow (optional, see {@link CacheSpec#overflow()}): the victims of a
+ * level are demoted into the next level rather than dropped, and promoted back
+ * on a hit, so the free room of the lower levels is not wasted.
+ *
+ * A key is held by a single priority level at a time. All the levels share one
+ * concurrent index (key -> node, the node knows its level), so a lookup costs a
+ * single probe no matter how many categories exist, and a put of a key under
+ * another priority moves it to that priority level.
+ *
+ * Concurrency: reads are served by the concurrent index and never block.
+ * computeIfAbsent, compute and merge are atomic per key, they lock only the
+ * key in the index (the eviction order is maintained once it is unlocked). The
+ * LRU order of each level is kept aside (guarded by the eviction lock) and a
+ * read only records its access in a striped, lossy read buffer (see
+ * {@link ReadBuffer}). The buffered accesses are replayed on the LRU order in
+ * batches, either by the next writer or by a reader which finds its ring full
+ * and succeeds to acquire the eviction lock without waiting. Since a read may
+ * be dropped, the LRU order is approximated.
+ *
  * @param <K> 			- Represents the cache Key type.
  * @param <V> 			- Represents the cache Value type.
  * @param <Priorities>	- Represents the cache Categories enumeration.
- * 
+ *
  * @author pazinio
  */
 public class Cache<K, V, Priorities extends Enum<Priorities>> {
 
-	/** LRUCache for each priority object level */
-	private Map<Priorities, Map<K, V>> priorityCaches;
+	/** All the entries of all the priority levels */
+	private final ConcurrentMap<K, Node<K, V>> data;
+
+	/** Eviction order for each priority object level (by ordinal) */
+	private final Level<K, V> [] levels;
 
 	/** Cache accessories */
 	private final Priorities [] priorities;
 
+	/** Guards the eviction order of all levels */
+	private final ReentrantLock evictionLock = new ReentrantLock();
+
+	/** Reads which were not replayed on the LRU order yet */
+	private final ReadBuffer<Node<K, V>> readBuffer = new ReadBuffer<Node<K, V>>();
+
+	/** null when every entry weighs 1 */
+	private final Weigher<? super K, ? super V> weigher;
+
+	/** Expires the nodes of all levels, guarded by evictionLock */
+	private final TimerWheel<K, V> timerWheel = new TimerWheel<K, V>(System.nanoTime());
+
+	/** Whether the victims of a level are demoted into the next level (see {@link CacheSpec#overflow()}) */
+	private final boolean overflow;
+
+	/** The total capacity of all levels (see {@link CacheSpec#sharedCapacity(int)}) */
+	private final int sharedCapacity;
+
+	/** Orders the inserts and the reads of all levels, advanced under evictionLock */
+	private volatile long clock;
+
+	/** Whether the capacities are rebalanced by ghost hits (see {@link CacheSpec#adaptive()}) */
+	private final boolean adaptive;
+
+	/** Estimate the miss ratio curve of each level, null unless sampled (see {@link CacheSpec#sampleMissRatio(double)}) */
+	private final MissRatioSampler<K> [] samplers;
+
+	/** The inserts between two rebalances, and since the last one (guarded by evictionLock) */
+	private final int adaptPeriod;
+	private int inserts;
+
 
 	/**
 	 * capacities    - determine whether an entry should be evicted from the cache
 	 * priorities  - the lowest priority level
 	 */
 	public Cache(int []capacities, Class<Priorities> p) {
+		this(new CacheSpec<Priorities>(capacities, p));
+	}
 
-		Priorities[] enumConstants = p.getEnumConstants();
-		
-		if (enumConstants.length != capacities.length)
-			throw new IllegalArgumentException("enumConstants.length != capacities.length");
+	/**
+	 * spec - the capacity, the eviction and the admission policy of each priority level
+	 */
+	public Cache(CacheSpec<Priorities> spec) {
+		this(spec, null);
+	}
 
-		
-		this.priorities     = enumConstants;
-		
-		// Concurrency is not needed here(container map), since after the first creation only
-		// get by key method will be invoked (no structural modification)
-		this.priorityCaches = new HashMap<Priorities, Map<K, V>>(enumConstants.length); 
+	/**
+	 * spec    - the capacity, the maximum weight, the eviction and the admission policy of each priority level
+	 * weigher - the weight of each entry, counted against the maximum weight of its level
+	 */
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	public Cache(CacheSpec<Priorities> spec, Weigher<? super K, ? super V> weigher) {
+
+		this.priorities     = spec.priorities;
+		this.weigher        = weigher;
+		this.overflow       = spec.overflow;
+		this.sharedCapacity = spec.sharedCapacity;
+		this.adaptive       = spec.adaptive;
+
+		if (adaptive && sharedCapacity != Integer.MAX_VALUE)
+			throw new IllegalArgumentException("adaptive and shared capacities");
+		this.data           = new ConcurrentHashMap<K, Node<K, V>>();
+
+		// Concurrency is not needed here(container array), since after the first creation only
+		// get by ordinal will be invoked (no structural modification)
+		this.levels = new Level[priorities.length];
 
-		int i=0;
 		for (Priorities priorityEnum : priorities) {
-			if (capacities[i] < 0) throw new IllegalArgumentException();
-			priorityCaches.put(priorityEnum, Collections.synchronizedMap(new LRUCache<K, V>(capacities[i])));
-			i++;
+			int i = priorityEnum.ordinal();
+			levels[i] = new Level<K, V>(spec.capacities[i], spec.minimumCapacities[i], spec.maximumCapacities[i],
+					spec.maximumWeights[i], spec.evictions[i], spec.tinyLfu[i], spec.expireAfterWrite[i],
+					spec.expireAfterAccess[i], spec.adaptive);
+		}
+
+		if (spec.missRatioSampleRate > 0) {
+			this.samplers = new MissRatioSampler[priorities.length];
+			for (int i = 0; i < priorities.length; i++) {
+				// The curve up to 4 times the capacity
+				samplers[i] = new MissRatioSampler<K>(spec.missRatioSampleRate, Math.max(1024, 4 * spec.capacities[i]));
+			}
+		} else {
+			this.samplers = null;
+		}
+
+		// A rebalance per total capacity of inserts
+		int total = 0;
+		for (int capacity : spec.capacities) {
+			total += capacity;
 		}
+		this.adaptPeriod = Math.max(total, 1);
+	}
+
+	/**
+	 * The estimated miss ratio of the priority level if it were an LRU level
+	 * of the given size (a miss ratio curve point), as sampled from the get
+	 * hits and the puts of the level.
+	 * 
+	 * @return NaN until enough keys were sampled.
+	 * @throws IllegalStateException
+	 *             unless sampled (see {@link CacheSpec#sampleMissRatio(double)}).
+	 */
+	public double missRatio(Priorities priority, int size) {
+		if (samplers == null) throw new IllegalStateException("the miss ratio is not sampled");
+
+		return samplers[priority.ordinal()].missRatio(size);
 	}
 
 	public void put(K k, V v, Priorities priority) {
-		addEntry(k, v, priority);
+		Level<K, V> level = levels[priority.ordinal()];
+		addEntry(k, v, priority, level.expireAfterWrite, level.expireAfterAccess);
+	}
+
+	/**
+	 * Puts an entry which expires once the duration has passed, whatever the
+	 * expire after write setting of its priority level is.
+	 */
+	public void put(K k, V v, Priorities priority, long expireAfterWrite, TimeUnit unit) {
+		addEntry(k, v, priority, CacheSpec.toNanos(expireAfterWrite, unit), levels[priority.ordinal()].expireAfterAccess);
+	}
+
+	/**
+	 * Puts an entry which expires after write and after access by its own
+	 * durations, whatever the settings of its priority level are. A duration
+	 * of 0 means the entry does not expire that way.
+	 */
+	public void put(K k, V v, Priorities priority, long expireAfterWrite, long expireAfterAccess, TimeUnit unit) {
+		addEntry(k, v, priority, (expireAfterWrite == 0) ? 0L : CacheSpec.toNanos(expireAfterWrite, unit),
+				(expireAfterAccess == 0) ? 0L : CacheSpec.toNanos(expireAfterAccess, unit));
+	}
+
+
+	/**
+	 * Puts all the entries under the same priority, the eviction lock is taken
+	 * once for the whole batch.
+	 */
+	public void putAll(Map<? extends K, ? extends V> entries, Priorities priority) {
+		Level<K, V> level = levels[priority.ordinal()];
+		long now = (level.expireAfterWrite > 0 || level.expireAfterAccess > 0) ? System.nanoTime() : 0L;
+
+		List<Node<K, V>> nodes  = new ArrayList<Node<K, V>>(entries.size());
+		List<Node<K, V>> priors = new ArrayList<Node<K, V>>(entries.size());
+		for (Map.Entry<? extends K, ? extends V> entry : entries.entrySet()) {
+			K k = entry.getKey();
+			V v = entry.getValue();
+
+			Node<K, V> node = new Node<K, V>(k, v, priority.ordinal(), weigh(k, v),
+					now, level.expireAfterWrite, level.expireAfterAccess);
+			nodes.add(node);
+			priors.add(data.put(k, node));
+			recordReference(k, node.level);
+		}
+
+		evictionLock.lock();
+		try {
+			maintenance();
+
+			for (int i = 0; i < nodes.size(); i++) {
+				applyWrite(nodes.get(i), priors.get(i));
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+
+	/**
+	 * Puts the entry unless the key is cached already (an expired entry is
+	 * replaced).
+	 * 
+	 * @return the cached value, or null when the entry has been put.
+	 */
+	public V putIfAbsent(K k, V v, Priorities priority) {
+		Node<K, V> node = newNode(k, v, priority);
+		for (;;) {
+			Node<K, V> prior = data.putIfAbsent(k, node);
+			if (prior == null) {
+				recordReference(k, node.level);
+				afterWrite(node, null);
+				return null;
+			}
+			if (!prior.expires() || !prior.isExpired(System.nanoTime())) {
+				return prior.value;
+			}
+			if (data.replace(k, prior, node)) {
+				recordReference(k, node.level);
+				afterWrite(node, prior);
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Compare and set: replaces the value of the key only while the key is
+	 * cached with the expected value.
+	 * 
+	 * @return true when the value has been replaced.
+	 */
+	public boolean replace(K k, V expected, V update, Priorities priority) {
+		Node<K, V> prior = data.get(k);
+		if (prior == null || !prior.value.equals(expected)
+				|| (prior.expires() && prior.isExpired(System.nanoTime()))) {
+			return false;
+		}
+
+		Node<K, V> node = newNode(k, update, priority);
+		if (!data.replace(k, prior, node)) {
+			return false;
+		}
+		recordReference(k, node.level);
+		afterWrite(node, prior);
+		return true;
+	}
+
+
+	/**
+	 * Returns the cached value of the key, or atomically loads and puts it:
+	 * the function is invoked at most once per miss, while concurrent callers
+	 * of the same key wait (only the key is locked, so the function should be
+	 * short and must not access the cache).
+	 * 
+	 * @return the current (existing or computed) value, or null if the
+	 *         function returns null (nothing is put).
+	 */
+	public V computeIfAbsent(K k, Priorities priority, final Function<? super K, ? extends V> mappingFunction) {
+		Node<K, V> node = getNode(k);
+		if (node != null) {
+			return node.value;
+		}
+
+		return compute(k, priority, new BiFunction<K, V, V>() {
+			@Override
+			public V apply(K key, V value) {
+				return (value != null) ? value : mappingFunction.apply(key);
+			}
+		});
 	}
 
+	/**
+	 * Atomically computes the new value of the key from its cached value
+	 * (null if absent), only the key is locked meanwhile. A null result
+	 * removes the key, otherwise it is put under the priority.
+	 * 
+	 * @return the new value, or null if removed.
+	 */
+	public V compute(K k, final Priorities priority, final BiFunction<? super K, ? super V, ? extends V> remappingFunction) {
+		final Write<K, V> write = new Write<K, V>();
+
+		Node<K, V> current = data.compute(k, new BiFunction<K, Node<K, V>, Node<K, V>>() {
+			@Override
+			public Node<K, V> apply(K key, Node<K, V> prior) {
+				boolean live = (prior != null) && !(prior.expires() && prior.isExpired(System.nanoTime()));
+				V value = live ? prior.value : null;
+
+				V newValue = remappingFunction.apply(key, value);
+				if (newValue == value && live) {
+					// Unchanged, nothing is written
+					return prior;
+				}
+
+				write.prior = prior;
+				write.node  = (newValue == null) ? null : newNode(key, newValue, priority);
+				return write.node;
+			}
+		});
+
+		// The eviction order is maintained once the key is unlocked
+		if (write.node != null) {
+			recordReference(k, write.node.level);
+			afterWrite(write.node, write.prior);
+		} else if (write.prior != null) {
+			afterRemoval(write.prior);
+		}
+
+		return (current != null) ? current.value : null;
+	}
+
+	/**
+	 * Atomically puts the value if the key is absent, otherwise merges it with
+	 * the cached value, see {@link #compute(Object, Enum, BiFunction)}.
+	 * 
+	 * @return the new value, or null if removed.
+	 */
+	public V merge(K k, final V value, Priorities priority, final BiFunction<? super V, ? super V, ? extends V> remappingFunction) {
+		if (value == null) throw new NullPointerException("value");
+
+		return compute(k, priority, new BiFunction<K, V, V>() {
+			@Override
+			public V apply(K key, V oldValue) {
+				return (oldValue == null) ? value : remappingFunction.apply(oldValue, value);
+			}
+		});
+	}
 
 	public V get(K k) {
-		for (Priorities priorityEnum : priorities) {
-			V v = getValue(k, priorityEnum);
-			if (v != null) {
-				return v;
+		Node<K, V> node = getNode(k);
+		return (node != null) ? node.value : null;
+	}
+
+	/**
+	 * @return the values of the keys which are cached (in the keys iteration
+	 *         order), missing keys are absent from the result.
+	 */
+	public Map<K, V> getAll(Collection<? extends K> keys) {
+		Map<K, V> result = new LinkedHashMap<K, V>();
+		for (K k : keys) {
+			Node<K, V> node = getNode(k);
+			if (node != null) {
+				result.put(k, node.value);
 			}
 		}
+		return result;
+	}
 
-		return null;
+	/**
+	 * @return the live value of the key, or null. The read is not recorded
+	 *         (neither on the eviction order, the access time nor the miss
+	 *         ratio sample), for compare and set callers which read only to
+	 *         write.
+	 */
+	V getQuietly(K k) {
+		Node<K, V> node = data.get(k);
+		if (node == null || (node.expires() && node.isExpired(System.nanoTime()))) {
+			return null;
+		}
+		return node.value;
+	}
+
+	/** @return the live node of the key (the read is recorded), or null */
+	private Node<K, V> getNode(K k) {
+		Node<K, V> node = data.get(k);
+		if (node == null) {
+			return null;
+		}
+
+		if (node.expires()) {
+			long now = System.nanoTime();
+			if (node.isExpired(now)) {
+				tryToMaintain();
+				return null;
+			}
+			if (node.expireAfterAccess > 0) {
+				node.accessTime = now;
+			}
+		}
+
+		afterRead(node);
+		recordReference(k, node.home);
+		return node;
 	}
 
-	private V getValue(K k, Priorities priority) {
-		return priorityCaches.get(priority).get(k);
+	private void addEntry(K k, V v, Priorities priority, long expireAfterWrite, long expireAfterAccess) {
+		Node<K, V> node = newNode(k, v, priority, expireAfterWrite, expireAfterAccess);
+		Node<K, V> prior = data.put(k, node);
+		recordReference(k, node.level);
+
+		afterWrite(node, prior);
 	}
 
-	private void addEntry(K k, V v, Priorities priority) {
-		Map<K, V> map = priorityCaches.get(priority);
-		map.put(k, v);
+	/** A get miss is not recorded, the put which follows it is */
+	private void recordReference(K k, int level) {
+		if (samplers != null) {
+			samplers[level].record(k);
+		}
 	}
-	
-	//Debug Only(Package-private)
-	synchronized int size(){
-		int size=0;
-		
-		for (Priorities priority: priorities) {
-			size += priorityCaches.get(priority).size();
+
+	private Node<K, V> newNode(K k, V v, Priorities priority) {
+		Level<K, V> level = levels[priority.ordinal()];
+		return newNode(k, v, priority, level.expireAfterWrite, level.expireAfterAccess);
+	}
+
+	private Node<K, V> newNode(K k, V v, Priorities priority, long expireAfterWrite, long expireAfterAccess) {
+		long now = (expireAfterWrite > 0 || expireAfterAccess > 0) ? System.nanoTime() : 0L;
+
+		return new Node<K, V>(k, v, priority.ordinal(), weigh(k, v),
+				now, expireAfterWrite, expireAfterAccess);
+	}
+
+	private int weigh(K k, V v) {
+		if (weigher == null) {
+			return 1;
+		}
+
+		int weight = weigher.weigh(k, v);
+		if (weight < 0) throw new IllegalArgumentException("weight < 0");
+		return weight;
+	}
+
+	/** Unlinks the node removed from the index (a compute to null) */
+	private void afterRemoval(Node<K, V> prior) {
+		evictionLock.lock();
+		try {
+			maintenance();
+			if (prior.linked) {
+				unlink(levels[prior.level], prior);
+				levels[prior.level].policy.onRemove(prior);
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	private void afterWrite(Node<K, V> node, Node<K, V> prior) {
+		evictionLock.lock();
+		try {
+			maintenance();
+			applyWrite(node, prior);
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	/** Links the written node into its level and unlinks the node it replaced, guarded by evictionLock */
+	private void applyWrite(Node<K, V> node, Node<K, V> prior) {
+		// A concurrent put may already have replaced this node, in that case
+		// the later writer is the one which links its own node
+		Level<K, V> level = levels[node.level];
+		boolean current = (data.get(node.key) == node);
+
+		if (current && prior != null && prior.linked && prior.level == node.level) {
+			unlink(level, prior);
+			level.policy.onUpdate(prior, node);
+			link(level, node);
+		} else {
+			// The prior node may belong to another priority level
+			if (prior != null && prior.linked) {
+				unlink(levels[prior.level], prior);
+				levels[prior.level].policy.onRemove(prior);
+			}
+			if (current) {
+				level.recordInsert(node.key);
+				level.policy.onInsert(node);
+				link(level, node);
+			}
+		}
+
+		evict(level);
+		reclaim(level);
+
+		if (adaptive && ++inserts >= adaptPeriod) {
+			inserts = 0;
+			rebalance();
+		}
+	}
+
+	/**
+	 * Shifts capacity from the level with the lowest marginal gain (ghost hits
+	 * per ghost slot) to the level with the highest, within their bounds. The
+	 * ghost hits are halved on each rebalance, so that the recent ones weigh
+	 * more. Guarded by evictionLock
+	 */
+	private void rebalance() {
+		Level<K, V> gainer = null;
+		Level<K, V> donor = null;
+		for (Level<K, V> level : levels) {
+			if (level.capacity < level.maximum && (gainer == null || level.gain() > gainer.gain())) {
+				gainer = level;
+			}
+			if (level.capacity > level.minimum && (donor == null || level.gain() < donor.gain())) {
+				donor = level;
+			}
+		}
+
+		if (gainer != null && donor != null && gainer != donor && gainer.gain() > donor.gain()) {
+			// A step of up to 1/16 of the donor, proportional to the gains gap
+			int step = (int) Math.max(1, donor.capacity * (gainer.gain() - donor.gain()) / (16 * gainer.gain()));
+			step = Math.min(step, Math.min(donor.capacity - donor.minimum, gainer.maximum - gainer.capacity));
+
+			gainer.capacity += step;
+			donor.capacity  -= step;
+			gainer.policy.setCapacity(gainer.capacity);
+			donor.policy.setCapacity(donor.capacity);
+			evict(donor);
+		}
+
+		for (Level<K, V> level : levels) {
+			level.ghostHits >>>= 1;
+		}
+	}
+
+	/**
+	 * Evicts until the level is within both its capacity and its maximum weight,
+	 * in overflow mode the victims are demoted into the next level, which is
+	 * evicted in turn. Guarded by evictionLock
+	 */
+	private void evict(Level<K, V> level) {
+		Level<K, V> next = null;
+		while (level.policy.size() > level.capacity || level.weightedSize > level.maximumWeight) {
+			Node<K, V> victim = level.policy.victim();
+			if (victim == null) {
+				break;
+			}
+
+			level.policy.onEvict(victim);
+			unlink(level, victim);
+			level.recordEviction(victim.key);
+
+			if (demote(victim)) {
+				next = levels[victim.level + 1];
+			} else {
+				data.remove(victim.key, victim);
+			}
+		}
+
+		if (next != null) {
+			evict(next);
+		}
+	}
+
+	/** Moves the victim into the next level, unless it is the last one. Guarded by evictionLock */
+	private boolean demote(Node<K, V> victim) {
+		if (!overflow || victim.level + 1 == levels.length
+				|| (victim.expires() && victim.isExpired(System.nanoTime()))) {
+			return false;
+		}
+
+		Node<K, V> demoted = victim.moveTo(victim.level + 1);
+		if (!data.replace(victim.key, victim, demoted)) {
+			// Replaced meanwhile, the later writer links its own node
+			return false;
+		}
+
+		Level<K, V> next = levels[demoted.level];
+		next.policy.onInsert(demoted);
+		link(next, demoted);
+		demoted.touched = victim.touched;
+		return true;
+	}
+
+	/** Moves a demoted node back into the level it was put with. Guarded by evictionLock */
+	private void promote(Node<K, V> node) {
+		Node<K, V> promoted = node.moveTo(node.home);
+		if (!data.replace(node.key, node, promoted)) {
+			return;
+		}
+
+		Level<K, V> level = levels[node.level];
+		unlink(level, node);
+		level.policy.onRemove(node);
+
+		Level<K, V> home = levels[promoted.level];
+		home.policy.onInsert(promoted);
+		link(home, promoted);
+		evict(home);
+		reclaim(home);
+	}
+
+	/**
+	 * Evicts until all the levels are within the shared capacity. The levels
+	 * above their minimum give room back, the least recently used victim among
+	 * them is evicted first, unless the written level is short of its minimum,
+	 * then the lowest priority level gives its room back first. Guarded by
+	 * evictionLock
+	 */
+	private void reclaim(Level<K, V> written) {
+		while (sharedCapacity != Integer.MAX_VALUE && size(levels) > sharedCapacity) {
+			Level<K, V> level = reclaimable(written);
+			Node<K, V> victim = level.policy.victim();
+			if (victim == null) {
+				break;
+			}
+
+			level.policy.onEvict(victim);
+			unlink(level, victim);
+			level.recordEviction(victim.key);
+			data.remove(victim.key, victim);
+		}
+	}
+
+	private Level<K, V> reclaimable(Level<K, V> written) {
+		boolean guaranteed = (written.policy.size() <= written.minimum);
+
+		Level<K, V> reclaimable = null;
+		long touched = Long.MAX_VALUE;
+		for (int i = levels.length - 1; i >= 0; i--) {
+			Level<K, V> level = levels[i];
+			if (level.policy.size() <= level.minimum) {
+				continue;
+			}
+			if (guaranteed) {
+				return level;
+			}
+
+			Node<K, V> victim = level.policy.peek();
+			if (victim != null && victim.touched < touched) {
+				reclaimable = level;
+				touched = victim.touched;
+			}
+		}
+		return (reclaimable != null) ? reclaimable : written;
+	}
+
+	private static <K, V> int size(Level<K, V> [] levels) {
+		int size = 0;
+		for (Level<K, V> level : levels) {
+			size += level.policy.size();
 		}
-		
 		return size;
 	}
 
+	/** Guarded by evictionLock */
+	private void link(Level<K, V> level, Node<K, V> node) {
+		node.touched = ++clock;
+		level.link(node);
+		if (node.expires()) {
+			timerWheel.schedule(node);
+		}
+	}
+
+	/** Guarded by evictionLock */
+	private void unlink(Level<K, V> level, Node<K, V> node) {
+		level.unlink(node);
+		timerWheel.deschedule(node);
+	}
+
+	/** Removes the expired node, guarded by evictionLock */
+	private void expire(Node<K, V> node) {
+		Level<K, V> level = levels[node.level];
+		level.policy.onRemove(node);
+		level.unlink(node);
+		data.remove(node.key, node);
+	}
+
+	private void afterRead(Node<K, V> node) {
+		// A read of a demoted node is buffered, so that it is promoted
+		if (levels[node.level].referenceBit && node.level == node.home) {
+			if (!node.referenced) {
+				node.referenced = true;
+				node.touched = clock;
+			}
+		} else if (readBuffer.offer(node)) {
+			tryToMaintain();
+		}
+	}
+
+	private void tryToMaintain() {
+		if (evictionLock.tryLock()) {
+			try {
+				maintenance();
+			} finally {
+				evictionLock.unlock();
+			}
+		}
+	}
+
+	/** Replays the buffered reads and removes the expired entries, guarded by evictionLock */
+	private void maintenance() {
+		drainReadBuffer();
+
+		if (timerWheel.size() > 0) {
+			timerWheel.advance(System.nanoTime(), this::expire);
+		}
+	}
+
+	/** Replays the buffered reads on the LRU order, guarded by evictionLock */
+	private void drainReadBuffer() {
+		readBuffer.drainTo(this::onAccess);
+	}
+
+	/** Guarded by evictionLock */
+	private void onAccess(Node<K, V> node) {
+		if (node.level != node.home) {
+			if (node.linked) {
+				promote(node);
+			}
+			return;
+		}
+		node.touched = ++clock;
+		levels[node.level].policy.onAccess(node);
+	}
+
+	//Debug Only(Package-private)
+	int size(){
+		return data.size();
+	}
+
+	//Debug Only(Package-private)
+	int capacity(Priorities priority) {
+		evictionLock.lock();
+		try {
+			return levels[priority.ordinal()].capacity;
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	//Debug Only(Package-private)
+	long weightedSize(Priorities priority) {
+		evictionLock.lock();
+		try {
+			return levels[priority.ordinal()].weightedSize;
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
+	//Debug Only(Package-private)
+	int policySize(Priorities priority) {
+		evictionLock.lock();
+		try {
+			return levels[priority.ordinal()].policy.size();
+		} finally {
+			evictionLock.unlock();
+		}
+	}
+
 	//Debug Only
 	@Override
-	synchronized public String toString() {
+	public String toString() {
+		StringBuilder priorityCaches = new StringBuilder("{");
+		evictionLock.lock();
+		try {
+			for (Priorities priority: priorities) {
+				if (priorityCaches.length() > 1)
+					priorityCaches.append(", ");
+				priorityCaches.append(priority).append('=').append(levels[priority.ordinal()].policy);
+			}
+		} finally {
+			evictionLock.unlock();
+		}
+		priorityCaches.append('}');
+
 		return "Cache [priorityCaches=" + priorityCaches + ", priorities="
 				+ Arrays.toString(priorities) + "]";
 	}
 
-	
+
+	/** The nodes written by a compute, for the eviction order */
+	private static final class Write<K, V> {
+		Node<K, V> node;
+		Node<K, V> prior;
+	}
+
+	/**
+	 * A single priority level, the eviction policy only decides what to evict
+	 * from the shared index.
+	 */
+	private static final class Level<K, V> {
+		/** Adapted by rebalances, guarded by evictionLock */
+		int capacity;
+		/** Never reclaimed by the other levels under a shared capacity (nor taken by rebalances) */
+		final int minimum;
+		/** Never exceeded by rebalances */
+		final int maximum;
+		final long maximumWeight;
+		final EvictionPolicy<K, V> policy;
+
+		/** Expiration settings in nanos, 0 if the entries do not expire that way */
+		final long expireAfterWrite;
+		final long expireAfterAccess;
+
+		/** The total weight of the linked nodes */
+		long weightedSize;
+
+		/** Reads set the node reference bit instead of being buffered */
+		final boolean referenceBit;
+
+		/** The keys last evicted from the level (insertion ordered), null unless adaptive */
+		final Map<K, Boolean> ghosts;
+		/** The inserts of ghost keys since the last rebalances (decayed) */
+		int ghostHits;
+
+		Level(int capacity, int minimum, int maximum, long maximumWeight, EvictionPolicy.Factory eviction, boolean tinyLfu,
+				long expireAfterWrite, long expireAfterAccess, boolean adaptive) {
+			this.capacity          = capacity;
+			this.minimum           = minimum;
+			this.maximum           = maximum;
+			this.ghosts            = adaptive ? new LinkedHashMap<K, Boolean>() : null;
+			this.maximumWeight     = maximumWeight;
+			this.expireAfterWrite  = expireAfterWrite;
+			this.expireAfterAccess = expireAfterAccess;
+
+			// The admission sketch counts the reads, so they must be buffered
+			if (tinyLfu) {
+				this.policy       = new TinyLfuPolicy<K, V>(capacity, eviction);
+				this.referenceBit = false;
+			} else {
+				this.policy       = eviction.create(capacity);
+				this.referenceBit = (eviction == Eviction.CLOCK);
+			}
+		}
+
+		void recordEviction(K key) {
+			if (ghosts == null) {
+				return;
+			}
+
+			ghosts.put(key, Boolean.TRUE);
+			for (Iterator<K> eldest = ghosts.keySet().iterator(); ghosts.size() > ghostCapacity();) {
+				eldest.next();
+				eldest.remove();
+			}
+		}
+
+		/** The ghosts of the next 1/8 of the capacity, the room a rebalance may add */
+		int ghostCapacity() {
+			return Math.max(capacity >>> 3, 1);
+		}
+
+		/** The estimated hits per entry of extra capacity */
+		double gain() {
+			return (double) ghostHits / ghostCapacity();
+		}
+
+		void recordInsert(K key) {
+			if (ghosts != null && ghosts.remove(key) != null) {
+				ghostHits++;
+			}
+		}
+
+		void link(Node<K, V> node) {
+			node.linked = true;
+			weightedSize += node.weight;
+		}
+
+		void unlink(Node<K, V> node) {
+			node.linked = false;
+			weightedSize -= node.weight;
+		}
+	}
+
 }
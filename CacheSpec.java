@@ -0,0 +1,229 @@
+package org.lru.cache;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The settings of a {@link Cache}, per priority level.
+ * 
+ * Only the capacities are mandatory, every other setting has a default:
+ * 
+ * <pre>
+ * new Cache&lt;K, V, Priorities&gt;(new CacheSpec&lt;Priorities&gt;(capacities, Priorities.class)
+ * 		.eviction(Priorities.LEVEL_1, Eviction.CLOCK));
+ * </pre>
+ * 
+ * A spec is read once, when the cache is created. It is not thread-safe.
+ * 
+ * @param <Priorities>	- Represents the cache Categories enumeration.
+ * 
+ * @author pazinio
+ */
+public final class CacheSpec<Priorities extends Enum<Priorities>> {
+
+	final Priorities [] priorities;
+	final int [] capacities;
+	final EvictionPolicy.Factory [] evictions;
+	final boolean [] tinyLfu;
+	final long [] maximumWeights;
+	final long [] expireAfterWrite;
+	final long [] expireAfterAccess;
+	final int [] minimumCapacities;
+	final int [] maximumCapacities;
+	int sharedCapacity = Integer.MAX_VALUE;
+	boolean adaptive;
+	double missRatioSampleRate;
+	boolean overflow;
+
+	/**
+	 * capacities    - determine whether an entry should be evicted from the cache
+	 * priorities  - the lowest priority level
+	 */
+	public CacheSpec(int []capacities, Class<Priorities> p) {
+
+		Priorities[] enumConstants = p.getEnumConstants();
+
+		if (enumConstants.length != capacities.length)
+			throw new IllegalArgumentException("enumConstants.length != capacities.length");
+
+		for (int capacity : capacities) {
+			if (capacity < 0) throw new IllegalArgumentException();
+		}
+
+		this.priorities = enumConstants;
+		this.capacities = capacities.clone();
+
+		this.evictions  = new EvictionPolicy.Factory[enumConstants.length];
+		Arrays.fill(evictions, Eviction.LRU);
+
+		this.tinyLfu    = new boolean[enumConstants.length];
+
+		this.maximumWeights = new long[enumConstants.length];
+		Arrays.fill(maximumWeights, Long.MAX_VALUE);
+
+		this.expireAfterWrite  = new long[enumConstants.length];
+		this.expireAfterAccess = new long[enumConstants.length];
+
+		this.minimumCapacities = new int[enumConstants.length];
+		this.maximumCapacities = new int[enumConstants.length];
+		Arrays.fill(maximumCapacities, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Sets the eviction policy of the priority level, one of {@link Eviction}
+	 * or a custom one (LRU by default)
+	 */
+	public CacheSpec<Priorities> eviction(Priorities priority, EvictionPolicy.Factory eviction) {
+		if (eviction == null) throw new IllegalArgumentException("eviction == null");
+
+		evictions[priority.ordinal()] = eviction;
+		return this;
+	}
+
+	/**
+	 * Puts a W-TinyLFU admission filter in front of the eviction policy of the
+	 * priority level (see {@link TinyLfuPolicy}), so that a new entry may be
+	 * rejected instead of displacing a more popular one. Off by default.
+	 */
+	public CacheSpec<Priorities> tinyLfu(Priorities priority) {
+		tinyLfu[priority.ordinal()] = true;
+		return this;
+	}
+
+	/**
+	 * Bounds the total weight of the entries of the priority level, on top of
+	 * its capacity. The weights are calculated by the {@link Weigher} which the
+	 * cache is created with (each entry weighs 1 without a weigher). Unbounded
+	 * by default.
+	 */
+	public CacheSpec<Priorities> maximumWeight(Priorities priority, long maximumWeight) {
+		if (maximumWeight < 0) throw new IllegalArgumentException("maximumWeight < 0");
+
+		maximumWeights[priority.ordinal()] = maximumWeight;
+		return this;
+	}
+
+	/**
+	 * Expires each entry of the priority level once the duration has passed
+	 * since it was put (time to live). A single entry may override it (see
+	 * {@link Cache#put(Object, Object, Enum, long, TimeUnit)}). Never by default.
+	 */
+	public CacheSpec<Priorities> expireAfterWrite(Priorities priority, long duration, TimeUnit unit) {
+		expireAfterWrite[priority.ordinal()] = toNanos(duration, unit);
+		return this;
+	}
+
+	/**
+	 * Expires each entry of the priority level once the duration has passed
+	 * since it was put or last read (time to idle). Never by default.
+	 */
+	public CacheSpec<Priorities> expireAfterAccess(Priorities priority, long duration, TimeUnit unit) {
+		expireAfterAccess[priority.ordinal()] = toNanos(duration, unit);
+		return this;
+	}
+
+	/**
+	 * Elastic capacities: the levels share a total capacity, and the capacity
+	 * of each level becomes its maximum (cap). A quiet level lends its room to
+	 * the busy ones, and once the total capacity is reached the entries of the
+	 * lowest priority level above its minimum are evicted first (see
+	 * {@link #minimumCapacity(Enum, int)}). Off by default (fixed capacities).
+	 */
+	public CacheSpec<Priorities> sharedCapacity(int capacity) {
+		if (capacity < 0) throw new IllegalArgumentException("capacity < 0");
+
+		sharedCapacity = capacity;
+		checkMinimumCapacities();
+		return this;
+	}
+
+	/**
+	 * Adaptive capacities: each level keeps a ghost list of its recently
+	 * evicted keys, a put of a ghost key is a miss which a larger level would
+	 * have hit. Periodically, capacity is shifted from the level with the
+	 * fewest ghost hits to the one with the most, the total capacity is kept
+	 * and each level stays within its minimum and maximum (see
+	 * {@link #minimumCapacity(Enum, int)} and
+	 * {@link #maximumCapacity(Enum, int)}). Off by default, it may not be
+	 * combined with a shared capacity.
+	 */
+	public CacheSpec<Priorities> adaptive() {
+		adaptive = true;
+		return this;
+	}
+
+	/**
+	 * The number of entries of the priority level which the other levels never
+	 * reclaim under a shared capacity (nor take under adaptive capacities), up
+	 * to its capacity. 0 by default.
+	 */
+	public CacheSpec<Priorities> minimumCapacity(Priorities priority, int minimum) {
+		if (minimum < 0 || minimum > capacities[priority.ordinal()])
+			throw new IllegalArgumentException("minimum: " + minimum);
+
+		minimumCapacities[priority.ordinal()] = minimum;
+		checkMinimumCapacities();
+		return this;
+	}
+
+	/** The shared capacity must hold the minimums of all levels at once */
+	private void checkMinimumCapacities() {
+		long minimums = 0;
+		for (int minimum : minimumCapacities) {
+			minimums += minimum;
+		}
+		if (minimums > sharedCapacity)
+			throw new IllegalArgumentException("minimum capacities: " + minimums + " > shared capacity: " + sharedCapacity);
+	}
+
+	/**
+	 * The capacity which the priority level never grows beyond under adaptive
+	 * capacities, from its capacity. Unbounded by default.
+	 */
+	public CacheSpec<Priorities> maximumCapacity(Priorities priority, int maximum) {
+		if (maximum < capacities[priority.ordinal()])
+			throw new IllegalArgumentException("maximum: " + maximum);
+
+		maximumCapacities[priority.ordinal()] = maximum;
+		return this;
+	}
+
+	/**
+	 * Estimates the miss ratio curve of each priority level by sampling the
+	 * given fraction of the keys (e.g. 0.01), see
+	 * {@link Cache#missRatio(Enum, int)}. Off by default.
+	 */
+	public CacheSpec<Priorities> sampleMissRatio(double rate) {
+		if (rate <= 0 || rate > 1) throw new IllegalArgumentException("rate: " + rate);
+
+		missRatioSampleRate = rate;
+		return this;
+	}
+
+	/**
+	 * Overflow cascade: an entry evicted from a priority level is demoted into
+	 * the next (lower) level instead of being dropped, it is dropped only once
+	 * evicted from the last level. A hit on a demoted entry promotes it back to
+	 * the level it was put with. Off by default (the levels are isolated).
+	 */
+	public CacheSpec<Priorities> overflow() {
+		overflow = true;
+		return this;
+	}
+
+	static long toNanos(long duration, TimeUnit unit) {
+		if (duration <= 0) throw new IllegalArgumentException("duration <= 0");
+
+		return unit.toNanos(duration);
+	}
+
+	@Override
+	public String toString() {
+		return "CacheSpec [priorities=" + Arrays.toString(priorities) + ", capacities="
+				+ Arrays.toString(capacities) + ", evictions=" + Arrays.toString(evictions)
+				+ ", tinyLfu=" + Arrays.toString(tinyLfu)
+				+ ", maximumWeights=" + Arrays.toString(maximumWeights)
+				+ ", expireAfterWrite=" + Arrays.toString(expireAfterWrite)
+				+ ", expireAfterAccess=" + Arrays.toString(expireAfterAccess) + "]";
+	}
+}
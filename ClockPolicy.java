@@ -0,0 +1,92 @@
+package org.lru.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * CLOCK (second chance): a read only sets the reference bit of its node and
+ * never relinks it, so a read of a CLOCK level need not touch the read buffer.
+ * 
+ * The eviction hand sweeps the nodes in insertion order. A referenced node
+ * gets a second chance: its bit is cleared and it is moved behind the hand.
+ * The first node found unreferenced is the victim.
+ * 
+ * @author pazinio
+ * 
+ * @param <K>
+ * @param <V>
+ */
+final class ClockPolicy<K, V> implements EvictionPolicy<K, V> {
+
+	/** Insertion ordered, the eldest entry is the one under the clock hand */
+	private final Map<K, Node<K, V>> clock = new LinkedHashMap<K, Node<K, V>>();
+
+	@Override
+	public void onInsert(Node<K, V> node) {
+		clock.put(node.key, node);
+	}
+
+	@Override
+	public void onUpdate(Node<K, V> prior, Node<K, V> node) {
+		// Insertion ordered, the new node keeps the position of the prior one
+		node.referenced = true;
+		clock.put(node.key, node);
+	}
+
+	@Override
+	public void onAccess(Node<K, V> node) {
+		// Usually the reference bit is set by the reader itself, unless the
+		// reads of the level are buffered (e.g. for the admission sketch)
+		node.referenced = true;
+	}
+
+	@Override
+	public void onRemove(Node<K, V> node) {
+		clock.remove(node.key, node);
+	}
+
+	@Override
+	public Node<K, V> victim() {
+		// Readers keep setting bits while the hand sweeps, so a single full
+		// sweep bounds the number of second chances
+		for (int chances = clock.size(); ; chances--) {
+			Iterator<Node<K, V>> hand = clock.values().iterator();
+			if (!hand.hasNext()) {
+				return null;
+			}
+
+			Node<K, V> node = hand.next();
+			if (!node.referenced || chances <= 0) {
+				return node;
+			}
+
+			node.referenced = false;
+			hand.remove();
+			clock.put(node.key, node);
+		}
+	}
+
+	@Override
+	public Node<K, V> peek() {
+		// The node under the hand, in constant time: the cache stamps the
+		// reads which set a reference bit, so it needs no sweep to be ranked
+		Iterator<Node<K, V>> hand = clock.values().iterator();
+		return hand.hasNext() ? hand.next() : null;
+	}
+
+	@Override
+	public void onEvict(Node<K, V> victim) {
+		clock.remove(victim.key, victim);
+	}
+
+	@Override
+	public int size() {
+		return clock.size();
+	}
+
+	@Override
+	public String toString() {
+		return clock.toString();
+	}
+}
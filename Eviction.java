@@ -0,0 +1,65 @@
+package org.lru.cache;
+
+/**
+ * The eviction policies shipped with {@link Cache}, any of them can be chosen
+ * per priority level (see {@link CacheSpec#eviction}).
+ * 
+ * LRU suits levels whose working set fits their capacity. SLRU, 2Q, ARC and
+ * LIRS are scan resistant: a single pass over many keys (which are read once)
+ * does not flush the entries which are read repeatedly.
+ * 
+ * @author pazinio
+ */
+public enum Eviction implements EvictionPolicy.Factory {
+
+	/** Least recently used, the default */
+	LRU {
+		@Override
+		public <K, V> EvictionPolicy<K, V> create(int capacity) {
+			return new LruPolicy<K, V>();
+		}
+	},
+
+	/**
+	 * CLOCK (second chance), approximates LRU while a read is only a table
+	 * lookup plus a single store. Suits read mostly levels.
+	 */
+	CLOCK {
+		@Override
+		public <K, V> EvictionPolicy<K, V> create(int capacity) {
+			return new ClockPolicy<K, V>();
+		}
+	},
+
+	/** Segmented LRU, probation and protected segments */
+	SLRU {
+		@Override
+		public <K, V> EvictionPolicy<K, V> create(int capacity) {
+			return new SlruPolicy<K, V>(capacity);
+		}
+	},
+
+	/** 2Q, a FIFO for new entries in front of an LRU for the reused ones */
+	TWO_Q {
+		@Override
+		public <K, V> EvictionPolicy<K, V> create(int capacity) {
+			return new TwoQueuePolicy<K, V>(capacity);
+		}
+	},
+
+	/** Adaptive Replacement Cache, balances recency and frequency by itself */
+	ARC {
+		@Override
+		public <K, V> EvictionPolicy<K, V> create(int capacity) {
+			return new ArcPolicy<K, V>(capacity);
+		}
+	},
+
+	/** Low Inter-reference Recency Set, evicts by reuse distance */
+	LIRS {
+		@Override
+		public <K, V> EvictionPolicy<K, V> create(int capacity) {
+			return new LirsPolicy<K, V>(capacity);
+		}
+	};
+}
@@ -0,0 +1,81 @@
+package org.lru.cache;
+
+/**
+ * Decides which entry of a single priority level is evicted next (SPI).
+ * 
+ * A policy only orders the nodes of its level, the nodes themselves are held
+ * by the cache index. All the methods are invoked while the cache eviction
+ * lock is held, so implementations need not be thread-safe. The shipped
+ * policies are listed by {@link Eviction}, other ones can be plugged in
+ * through a {@link Factory} (see {@link CacheSpec#eviction}).
+ * 
+ * Nodes are compared by identity: a node which is no longer held by the
+ * policy (replaced or already evicted) must be ignored. A node which is
+ * updated while it is not held is to be inserted.
+ * 
+ * @author pazinio
+ * 
+ * @param <K>
+ * @param <V>
+ */
+public interface EvictionPolicy<K, V> {
+
+	/**
+	 * A node was added to the level. Its key may still be held by an older
+	 * node when concurrent writes of the key are applied out of order: the
+	 * new node then takes the place of the held one (whose removal, applied
+	 * later, is ignored).
+	 */
+	void onInsert(Node<K, V> node);
+
+	/** The prior node of the key was replaced by a node of the same level */
+	void onUpdate(Node<K, V> prior, Node<K, V> node);
+
+	/** A (buffered) read of the node */
+	void onAccess(Node<K, V> node);
+
+	/** The node was removed from the level (not evicted) */
+	void onRemove(Node<K, V> node);
+
+	/**
+	 * @return the node which should be evicted next, or <tt>null</tt> if the
+	 *         policy is empty. The node stays in the policy until
+	 *         {@link #onEvict(Node)} is invoked.
+	 */
+	Node<K, V> victim();
+
+	/**
+	 * @return the node which {@link #victim()} would return, or <tt>null</tt>
+	 *         if the policy is empty, without its side effects (e.g. the
+	 *         reference bits it clears): the cache peeks at the victims of
+	 *         several levels to reclaim from one of them.
+	 */
+	default Node<K, V> peek() {
+		return victim();
+	}
+
+	/** The victim is evicted from the level */
+	void onEvict(Node<K, V> victim);
+
+	/** @return the number of nodes held by the policy */
+	int size();
+
+	/**
+	 * The capacity of the level was changed (by an adaptive rebalance), the
+	 * policy resizes its internal segments accordingly. The cache evicts the
+	 * nodes beyond the new capacity itself.
+	 */
+	default void setCapacity(int capacity) {
+	}
+
+	/** Creates a policy for each priority level which it is chosen for */
+	interface Factory {
+
+		/**
+		 * @param capacity
+		 *            The maximum number of nodes of the level, a hint for
+		 *            sizing internal segments (the cache enforces it).
+		 */
+		<K, V> EvictionPolicy<K, V> create(int capacity);
+	}
+}
@@ -0,0 +1,143 @@
+package org.lru.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Negative cache of populator failures.
+ * 
+ * The failure of a key is remembered and the key backs off: until its next
+ * probe time, populates of the key fail fast with the remembered failure
+ * instead of calling the failing backend again. Each consecutive failure
+ * doubles the backoff (up to a maximum), with a random jitter of up to half
+ * of it so that the probes of many keys don't line up. A success forgets the
+ * failures of the key.
+ * 
+ * The number of remembered failures is bounded: beyond it, the settled ones
+ * are forgotten first, then the ones due for a probe first.
+ * 
+ * @author pazinio
+ */
+final class FailureBackoff<K> {
+
+	private final long baseNanos;
+	private final long maxNanos;
+	private final int maxEntries;
+	private final ConcurrentMap<K, Failure> failures;
+
+	/** A single sweep at a time, the other failures do not wait for it */
+	private final AtomicBoolean sweeping = new AtomicBoolean();
+
+	/**
+	 * @param baseNanos
+	 *            the backoff after the first failure, 0 disables the
+	 *            negative cache.
+	 * @param maxNanos
+	 *            the maximum backoff.
+	 * @param maxEntries
+	 *            the maximum number of failures kept.
+	 */
+	FailureBackoff(long baseNanos, long maxNanos, int maxEntries) {
+		this.baseNanos = baseNanos;
+		this.maxNanos = Math.max(baseNanos, maxNanos);
+		this.maxEntries = maxEntries;
+		this.failures = new ConcurrentHashMap<K, Failure>();
+	}
+
+	/** @return the remembered failure while the key backs off, otherwise null */
+	Exception backingOff(K key) {
+		Failure failure = failures.get(key);
+		if (failure == null || System.nanoTime() - failure.retryAt >= 0) {
+			return null;
+		}
+		return failure.cause;
+	}
+
+	void failed(K key, Exception cause) {
+		if (baseNanos <= 0) {
+			return;
+		}
+		
+		long now = System.nanoTime();
+		for (;;) {
+			Failure prior = failures.get(key);
+			int attempts = (prior == null) ? 1 : prior.attempts + 1;
+			Failure failure = new Failure(cause, attempts, now + backoff(attempts));
+			
+			if (prior == null ? failures.putIfAbsent(key, failure) == null : failures.replace(key, prior, failure)) {
+				break;
+			}
+		}
+		
+		if (failures.size() > maxEntries && sweeping.compareAndSet(false, true)) {
+			try {
+				sweep(now);
+			} finally {
+				sweeping.set(false);
+			}
+		}
+	}
+
+	void succeeded(K key) {
+		if (!failures.isEmpty()) {
+			failures.remove(key);
+		}
+	}
+
+	/** Exponential backoff with jitter, in [delay/2, delay] */
+	private long backoff(int attempts) {
+		long delay = (attempts > 62 || baseNanos > (maxNanos >> (attempts - 1))) ? maxNanos : baseNanos << (attempts - 1);
+		long half = delay >> 1;
+		return half + ThreadLocalRandom.current().nextLong(delay - half + 1);
+	}
+
+	/**
+	 * Forgets the failures which have not been probed for the maximum backoff,
+	 * then, while too many are left, the ones due for a probe first. A sweep
+	 * goes down to 3/4 of the maximum, so that its cost is amortized over the
+	 * failures which follow it.
+	 */
+	private void sweep(final long now) {
+		for (Iterator<Failure> it = failures.values().iterator(); it.hasNext();) {
+			if (now - it.next().retryAt >= maxNanos) {
+				it.remove();
+			}
+		}
+
+		int excess = failures.size() - (maxEntries - (maxEntries >>> 2));
+		if (excess <= 0) {
+			return;
+		}
+
+		List<Map.Entry<K, Failure>> eldest = new ArrayList<Map.Entry<K, Failure>>(failures.entrySet());
+		Collections.sort(eldest, new Comparator<Map.Entry<K, Failure>>() {
+			@Override
+			public int compare(Map.Entry<K, Failure> a, Map.Entry<K, Failure> b) {
+				return Long.compare(a.getValue().retryAt - now, b.getValue().retryAt - now);
+			}
+		});
+		for (int i = 0; i < excess && i < eldest.size(); i++) {
+			failures.remove(eldest.get(i).getKey(), eldest.get(i).getValue());
+		}
+	}
+
+	private static final class Failure {
+		final Exception cause;
+		final int attempts;
+		final long retryAt;
+
+		Failure(Exception cause, int attempts, long retryAt) {
+			this.cause = cause;
+			this.attempts = attempts;
+			this.retryAt = retryAt;
+		}
+	}
+}
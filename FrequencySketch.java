@@ -0,0 +1,109 @@
+package org.lru.cache;
+
+/**
+ * A count-min sketch which estimates the popularity of keys within a time
+ * window, using 4-bit counters (a frequency never exceeds 15).
+ * 
+ * Each key maps to four counters, one per row: each row picks a table word by
+ * its own hash, and the key picks the same 4-bit counter group within each of
+ * the words (so an increment may touch up to four cache lines). Once the
+ * number of increments reaches the sample size (10 times the capacity) all the
+ * counters are halved, so that old popularity fades away (aging).
+ * 
+ * Not thread-safe, guarded by the cache eviction lock.
+ * 
+ * @author pazinio
+ * 
+ * @param <K>
+ */
+final class FrequencySketch<K> {
+
+	private static final long [] SEED = {
+		0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+
+	private static final long RESET_MASK = 0x7777777777777777L;
+	private static final long ONE_MASK   = 0x1111111111111111L;
+
+	private static final int MAXIMUM_CAPACITY = 1 << 30;
+
+	private final long [] table;
+	private final int tableMask;
+	private final int sampleSize;
+	private int size;
+
+	FrequencySketch(int capacity) {
+		int maximum = Math.min(Math.max(capacity, 1), MAXIMUM_CAPACITY);
+
+		this.table      = new long[ceilingPowerOfTwo(maximum)];
+		this.tableMask  = table.length - 1;
+		this.sampleSize = (maximum > Integer.MAX_VALUE / 10) ? Integer.MAX_VALUE : 10 * maximum;
+	}
+
+	/** @return the estimated number of occurrences of the key, up to 15 */
+	int frequency(K key) {
+		int hash  = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+
+		int frequency = Integer.MAX_VALUE;
+		for (int i = 0; i < 4; i++) {
+			int index = indexOf(hash, i);
+			int count = (int) ((table[index] >>> ((start + i) << 2)) & 0xfL);
+			frequency = Math.min(frequency, count);
+		}
+		return frequency;
+	}
+
+	/** Increments the popularity of the key, ages all the keys periodically */
+	void increment(K key) {
+		int hash  = spread(key.hashCode());
+		int start = (hash & 3) << 2;
+
+		boolean added = false;
+		for (int i = 0; i < 4; i++) {
+			added |= incrementAt(indexOf(hash, i), start + i);
+		}
+
+		if (added && (++size == sampleSize)) {
+			reset();
+		}
+	}
+
+	/** Increments the j-th 4-bit counter of the table word, unless it is saturated */
+	private boolean incrementAt(int i, int j) {
+		int offset = j << 2;
+		long mask  = (0xfL << offset);
+		if ((table[i] & mask) != mask) {
+			table[i] += (1L << offset);
+			return true;
+		}
+		return false;
+	}
+
+	/** Halves every counter, the odd counters lose their remainder */
+	private void reset() {
+		int count = 0;
+		for (int i = 0; i < table.length; i++) {
+			count += Long.bitCount(table[i] & ONE_MASK);
+			table[i] = (table[i] >>> 1) & RESET_MASK;
+		}
+		// An increment touches four counters, the lost remainders are worth
+		// a quarter of the odd counters before halving
+		size = (size - (count >>> 2)) >>> 1;
+	}
+
+	private int indexOf(int item, int i) {
+		long hash = (item + SEED[i]) * SEED[i];
+		hash += (hash >>> 32);
+		return ((int) hash) & tableMask;
+	}
+
+	private static int spread(int x) {
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		x = ((x >>> 16) ^ x) * 0x45d9f3b;
+		return (x >>> 16) ^ x;
+	}
+
+	private static int ceilingPowerOfTwo(int x) {
+		return 1 << (32 - Integer.numberOfLeadingZeros(x - 1));
+	}
+}
@@ -0,0 +1,253 @@
+package org.lru.cache;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LIRS, Low Inter-reference Recency Set (Jiang &amp; Zhang).
+ * 
+ * Keys are ranked by their reuse distance rather than by their recency. The
+ * keys with a short reuse distance (LIR, 99% of the level) are kept, while
+ * the rest (resident HIR, 1% of the level) sit in a FIFO queue and are the
+ * first to go. A HIR key becomes LIR only when it is read again while it is
+ * still on the recency stack, so a scan (which reads each key once) only
+ * churns the small HIR queue.
+ * 
+ * The recency stack also keeps non-resident HIR keys (ghosts), their number is
+ * bounded by the capacity of the level.
+ * 
+ * @author pazinio
+ * 
+ * @param <K>
+ * @param <V>
+ */
+final class LirsPolicy<K, V> implements EvictionPolicy<K, V> {
+
+	private int lirCapacity;
+	private int ghostCapacity;
+
+	private int lirCount;
+	private int ghostCount;
+
+	/** Every key known by the policy, resident or not */
+	private final Map<K, Entry<K, V>> entries = new HashMap<K, Entry<K, V>>();
+
+	/** The recency stack, access ordered, the bottom is the eldest entry (always LIR) */
+	private final Map<K, Entry<K, V>> stack = new LinkedHashMap<K, Entry<K, V>>(16, 0.75f, true);
+
+	/** The resident HIR keys, insertion ordered (FIFO) */
+	private final Map<K, Entry<K, V>> queue = new LinkedHashMap<K, Entry<K, V>>();
+
+	LirsPolicy(int capacity) {
+		setCapacity(capacity);
+	}
+
+	@Override
+	public void onInsert(Node<K, V> node) {
+		Entry<K, V> e = entries.get(node.key);
+		if (e == null) {
+			e = new Entry<K, V>();
+			entries.put(node.key, e);
+		} else if (e.node == null) {
+			ghostCount--;
+		} else {
+			// Still resident, the writes of the key were applied out of order
+			e.node = node;
+			onAccess(node);
+			return;
+		}
+		e.node = node;
+
+		if (lirCount < lirCapacity) {
+			// Warm up, the first keys are all LIR
+			e.lir = true;
+			lirCount++;
+			stack.remove(node.key);
+			stack.put(node.key, e);
+		} else if (stack.containsKey(node.key)) {
+			// A ghost which is reused within the stack has a short reuse distance
+			e.lir = true;
+			lirCount++;
+			stack.get(node.key);
+			demoteBottom();
+		} else {
+			e.lir = false;
+			stack.put(node.key, e);
+			queue.put(node.key, e);
+		}
+		prune();
+	}
+
+	@Override
+	public void onUpdate(Node<K, V> prior, Node<K, V> node) {
+		Entry<K, V> e = entries.get(prior.key);
+		if (e != null && e.node == prior) {
+			e.node = node;
+			onAccess(node);
+		} else {
+			onInsert(node);
+		}
+	}
+
+	@Override
+	public void onAccess(Node<K, V> node) {
+		Entry<K, V> e = entries.get(node.key);
+		if (e == null || e.node != node) {
+			return;
+		}
+
+		if (e.lir) {
+			stack.get(node.key);
+		} else if (stack.containsKey(node.key)) {
+			e.lir = true;
+			lirCount++;
+			stack.get(node.key);
+			queue.remove(node.key);
+			demoteBottom();
+		} else {
+			stack.put(node.key, e);
+			queue.remove(node.key);
+			queue.put(node.key, e);
+		}
+		prune();
+	}
+
+	@Override
+	public void onRemove(Node<K, V> node) {
+		Entry<K, V> e = entries.get(node.key);
+		if (e == null || e.node != node) {
+			return;
+		}
+
+		if (e.lir) {
+			lirCount--;
+		}
+		entries.remove(node.key);
+		stack.remove(node.key);
+		queue.remove(node.key);
+		prune();
+	}
+
+	@Override
+	public Node<K, V> victim() {
+		Entry<K, V> e = first(queue);
+		if (e == null) {
+			// No resident HIR key, the bottom of the stack is the coldest LIR one
+			e = first(stack);
+		}
+		return (e != null) ? e.node : null;
+	}
+
+	@Override
+	public void onEvict(Node<K, V> victim) {
+		Entry<K, V> e = entries.get(victim.key);
+		if (e == null || e.node != victim) {
+			return;
+		}
+
+		if (e.lir) {
+			onRemove(victim);
+			return;
+		}
+
+		queue.remove(victim.key);
+		if (stack.containsKey(victim.key)) {
+			e.node = null;
+			ghostCount++;
+			if (ghostCount > ghostCapacity) {
+				removeEldestGhost();
+			}
+		} else {
+			entries.remove(victim.key);
+		}
+	}
+
+	@Override
+	public int size() {
+		return lirCount + queue.size();
+	}
+
+	@Override
+	public void setCapacity(int capacity) {
+		int hirCapacity    = Math.max(1, capacity / 100);
+		this.lirCapacity   = Math.max(0, capacity - hirCapacity);
+		this.ghostCapacity = Math.max(1, capacity);
+
+		while (lirCount > lirCapacity) {
+			demoteBottom();
+		}
+		while (ghostCount > ghostCapacity) {
+			removeEldestGhost();
+		}
+	}
+
+	/** The LIR key at the bottom of the stack becomes a resident HIR one */
+	private void demoteBottom() {
+		Entry<K, V> bottom = first(stack);
+		K key = firstKey(stack);
+
+		bottom.lir = false;
+		lirCount--;
+		stack.remove(key);
+		queue.put(key, bottom);
+		prune();
+	}
+
+	/** Keeps a LIR key at the bottom of the stack */
+	private void prune() {
+		Iterator<Map.Entry<K, Entry<K, V>>> it = stack.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<K, Entry<K, V>> bottom = it.next();
+			if (bottom.getValue().lir) {
+				return;
+			}
+
+			it.remove();
+			if (bottom.getValue().node == null) {
+				entries.remove(bottom.getKey());
+				ghostCount--;
+			}
+		}
+	}
+
+	private void removeEldestGhost() {
+		Iterator<Map.Entry<K, Entry<K, V>>> it = stack.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<K, Entry<K, V>> e = it.next();
+			if (e.getValue().node == null) {
+				it.remove();
+				entries.remove(e.getKey());
+				ghostCount--;
+				return;
+			}
+		}
+	}
+
+	private static <K, E> E first(Map<K, E> map) {
+		Iterator<E> it = map.values().iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+
+	private static <K, E> K firstKey(Map<K, E> map) {
+		Iterator<K> it = map.keySet().iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+
+	private static final class Entry<K, V> {
+		/** <tt>null</tt> for a non-resident HIR key (ghost) */
+		Node<K, V> node;
+		boolean lir;
+
+		@Override
+		public String toString() {
+			return (lir ? "LIR:" : "HIR:") + node;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "{stack=" + stack + ", queue=" + queue + "}";
+	}
+}
@@ -0,0 +1,67 @@
+package org.lru.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used: every read moves the node to the head of the level and
+ * the victim is the node at the tail.
+ * 
+ * @author pazinio
+ * 
+ * @param <K>
+ * @param <V>
+ */
+final class LruPolicy<K, V> implements EvictionPolicy<K, V> {
+
+	/** Access ordered, the eldest entry is the least recently used */
+	private final Map<K, Node<K, V>> order = new LinkedHashMap<K, Node<K, V>>(16, 0.75f, true);
+
+	@Override
+	public void onInsert(Node<K, V> node) {
+		order.put(node.key, node);
+	}
+
+	@Override
+	public void onUpdate(Node<K, V> prior, Node<K, V> node) {
+		order.put(node.key, node);
+	}
+
+	@Override
+	public void onAccess(Node<K, V> node) {
+		// Access ordered, a get is enough to move the key to the head
+		order.get(node.key);
+	}
+
+	@Override
+	public void onRemove(Node<K, V> node) {
+		order.remove(node.key, node);
+	}
+
+	@Override
+	public Node<K, V> victim() {
+		Iterator<Node<K, V>> it = order.values().iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+
+	@Override
+	public void onEvict(Node<K, V> victim) {
+		order.remove(victim.key, victim);
+	}
+
+	/** @return <tt>true</tt> if the key of the node is held, without touching the order */
+	boolean contains(Node<K, V> node) {
+		return order.containsKey(node.key);
+	}
+
+	@Override
+	public int size() {
+		return order.size();
+	}
+
+	@Override
+	public String toString() {
+		return order.toString();
+	}
+}
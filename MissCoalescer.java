@@ -0,0 +1,178 @@
+package org.lru.cache;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Collapses concurrent misses of commands of the same class into a single
+ * call of a bulk populator.
+ * 
+ * The first miss of a class opens a batch and waits up to the window, the
+ * misses of the same class which arrive in the meantime join the batch. The
+ * batch is populated once the window ends (by the thread which opened it) or
+ * once it holds maxBatch commands (by the thread which filled it), whichever
+ * comes first. Every thread of the batch gets the bean of its own command.
+ * 
+ * No monitor is held while waiting, so it is safe on virtual threads.
+ * 
+ * @author pazinio
+ */
+final class MissCoalescer {
+
+	private final long windowNanos;
+	private final int maxBatch;
+	private final ConcurrentMap<Class<?>, Batch> open;
+
+	/**
+	 * @param windowNanos
+	 *            how long the first miss of a class waits for others to join.
+	 * @param maxBatch
+	 *            the number of commands which populates a batch at once.
+	 */
+	MissCoalescer(long windowNanos, int maxBatch) {
+		if (windowNanos <= 0 || maxBatch < 1) {
+			throw new IllegalArgumentException("window: " + windowNanos + ", maxBatch: " + maxBatch);
+		}
+		this.windowNanos = windowNanos;
+		this.maxBatch = maxBatch;
+		this.open = new ConcurrentHashMap<Class<?>, Batch>();
+	}
+
+	/**
+	 * @return the bean of the command, as populated by the bulk populator
+	 *         together with the commands of the same class which missed in
+	 *         the same window (null when the populator has no bean for it).
+	 */
+	Object populate(Command<?> command, BulkBeanPopulator<?> populate) throws Exception {
+		Class<?> type = command.getClass();
+		for (;;) {
+			Batch batch = open.get(type);
+			if (batch == null) {
+				Batch created = new Batch();
+				batch = open.putIfAbsent(type, created);
+				if (batch == null) {
+					batch = created;
+				}
+			}
+			
+			int size = batch.add(command);
+			if (size == 0) {
+				// Closed by now, a new batch is opened
+				open.remove(type, batch);
+				continue;
+			}
+			
+			if (size == maxBatch) {
+				flush(type, batch, populate);
+			} else if (size == 1) {
+				batch.awaitFull(windowNanos);
+				if (batch.close()) {
+					flush(type, batch, populate);
+				}
+			}
+			return batch.await(command);
+		}
+	}
+
+	private void flush(Class<?> type, Batch batch, BulkBeanPopulator<?> populate) {
+		open.remove(type, batch);
+		Map<Command<?>, CompletableFuture<Object>> beans = batch.beans;
+		try {
+			Map<Command<?>, ?> populated = populate.call(Collections.unmodifiableSet(beans.keySet()));
+			for (Map.Entry<Command<?>, CompletableFuture<Object>> bean : beans.entrySet()) {
+				bean.getValue().complete(populated.get(bean.getKey()));
+			}
+		} catch (Throwable e) {
+			for (CompletableFuture<Object> bean : beans.values()) {
+				bean.completeExceptionally(e);
+			}
+		}
+	}
+
+	/**
+	 * The commands of a class which missed in the same window, closed once it
+	 * is populated.
+	 */
+	private final class Batch {
+		final ReentrantLock lock = new ReentrantLock();
+		final CountDownLatch full = new CountDownLatch(1);
+		final Map<Command<?>, CompletableFuture<Object>> beans = new LinkedHashMap<Command<?>, CompletableFuture<Object>>();
+		boolean closed;
+
+		/**
+		 * @return the batch size once the command joined, 0 when closed and -1
+		 *         when the command is in the batch already
+		 */
+		int add(Command<?> command) {
+			lock.lock();
+			try {
+				if (closed) {
+					return 0;
+				}
+				if (beans.containsKey(command)) {
+					return -1;
+				}
+				beans.put(command, new CompletableFuture<Object>());
+				int size = beans.size();
+				if (size == maxBatch) {
+					closed = true;
+					full.countDown();
+				}
+				return size;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		/** @return true when this call closed the batch */
+		boolean close() {
+			lock.lock();
+			try {
+				if (closed) {
+					return false;
+				}
+				closed = true;
+				return true;
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		void awaitFull(long nanos) {
+			try {
+				full.await(nanos, TimeUnit.NANOSECONDS);
+			} catch (InterruptedException e) {
+				// The batch is populated anyway, the others depend on it
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		Object await(Command<?> command) throws Exception {
+			CompletableFuture<Object> bean;
+			lock.lock();
+			try {
+				bean = beans.get(command);
+			} finally {
+				lock.unlock();
+			}
+			
+			try {
+				return bean.get();
+			} catch (ExecutionException e) {
+				Throwable cause = e.getCause();
+				if (cause instanceof Error) {
+					throw (Error) cause;
+				}
+				throw (Exception) cause;
+			}
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package org.lru.cache;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Estimates the miss ratio curve of a cache level online, by spatial sampling
+ * (SHARDS): only the keys whose hash falls under a threshold are tracked, and
+ * the reuse distances measured among them are scaled by the sampling rate.
+ * 
+ * The reuse distance of a reference is the number of distinct keys referenced
+ * since the previous reference of the same key, an LRU cache of a larger size
+ * would have hit it. The histogram of the reuse distances therefore gives the
+ * miss ratio of the level at any size, see {@link #missRatio(int)}.
+ * 
+ * With a fixed rate the sampled keys may take more (or fewer) references than
+ * their share, a few hot keys are enough to skew the curve. So the estimate is
+ * corrected as by SHARDS-adj: the difference between the expected number of
+ * sampled references (all the references times the rate) and the actual one
+ * is added to the first bucket, where it counts as hits at any size.
+ * 
+ * A key which is not sampled costs a counter increment, a multiplication and
+ * a comparison, the sampled ones (the sampling rate of them) take a lock and a
+ * Fenwick tree update, so the overhead of the read path stays small.
+ * 
+ * @author pazinio
+ */
+final class MissRatioSampler<K> {
+
+	/** The sampled hash range, the hash of a key is spread over 24 bits */
+	private static final int HASH_SPACE = 1 << 24;
+	private static final int BUCKETS = 512;
+
+	private final double rate;
+	private final int threshold;
+	private final int maxKeys;
+	private final int bucketWidth;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** The sampled keys by their last reference time, least recent first, guarded by lock */
+	private final Map<K, Integer> lastReference = new LinkedHashMap<K, Integer>();
+	/** A Fenwick tree marking the last reference time of each tracked key, guarded by lock */
+	private final int [] tree;
+	private int time;
+
+	/** Reuse distances histogram, the last bucket counts the ones beyond the range, guarded by lock */
+	private final long [] histogram = new long[BUCKETS + 1];
+	private long references;
+
+	/** All the references, sampled or not */
+	private final LongAdder total = new LongAdder();
+
+	/**
+	 * @param rate
+	 *            the sampled fraction of the keys, in (0, 1].
+	 * @param maxDistance
+	 *            the largest cache size which the curve is estimated for.
+	 */
+	MissRatioSampler(double rate, int maxDistance) {
+		if (rate <= 0 || rate > 1) throw new IllegalArgumentException("rate: " + rate);
+
+		this.rate        = rate;
+		this.threshold   = (int) Math.ceil(rate * HASH_SPACE);
+		this.bucketWidth = Math.max(1, (maxDistance + BUCKETS - 1) / BUCKETS);
+		// Enough keys to measure the distances up to the range
+		this.maxKeys     = (int) Math.min(1 << 16, Math.max(64, 2L * maxDistance * rate));
+		this.tree        = new int[2 * maxKeys + 1];
+	}
+
+	/** Records a reference of the key, if it is sampled */
+	void record(K key) {
+		total.increment();
+		if (((key.hashCode() * 0x9E3779B9) >>> 8) >= threshold) {
+			return;
+		}
+
+		lock.lock();
+		try {
+			sample(key);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * @return the estimated miss ratio of an LRU level of the size, NaN until
+	 *         a sampled key is referenced.
+	 */
+	double missRatio(int size) {
+		lock.lock();
+		try {
+			if (references == 0) {
+				return Double.NaN;
+			}
+
+			// SHARDS-adj, the first bucket takes the surplus (or the deficit)
+			double expected = Math.max(total.sum() * rate, 1.0);
+			double adjustment = expected - references;
+
+			// A reference hits when its reuse distance is below the size
+			double hits = 0;
+			for (int bucket = 0; bucket < BUCKETS; bucket++) {
+				long from = (long) bucket * bucketWidth;
+				if (from >= size) {
+					break;
+				}
+				double count = (bucket == 0) ? histogram[0] + adjustment : histogram[bucket];
+				hits += count * Math.min(1.0, (double) (size - from) / bucketWidth);
+			}
+			return Math.min(1.0, Math.max(0.0, 1.0 - hits / expected));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Guarded by lock */
+	private void sample(K key) {
+		references++;
+
+		if (time == tree.length - 1) {
+			compact();
+		}
+		Integer prior = lastReference.remove(key);
+		int now = ++time;
+
+		if (prior == null) {
+			// A cold miss, counted in no bucket
+			if (lastReference.size() >= maxKeys) {
+				Iterator<Map.Entry<K, Integer>> eldest = lastReference.entrySet().iterator();
+				update(eldest.next().getValue(), -1);
+				eldest.remove();
+			}
+		} else {
+			int distinct = sum(now - 1) - sum(prior);
+			update(prior, -1);
+
+			long distance = (long) (distinct / rate);
+			histogram[(int) Math.min(distance / bucketWidth, BUCKETS)]++;
+		}
+
+		update(now, 1);
+		lastReference.put(key, now);
+	}
+
+	/** Renumbers the reference times of the tracked keys from 1 on, guarded by lock */
+	private void compact() {
+		Arrays.fill(tree, 0);
+		time = 0;
+		for (Map.Entry<K, Integer> entry : lastReference.entrySet()) {
+			entry.setValue(++time);
+			update(time, 1);
+		}
+	}
+
+	private void update(int i, int delta) {
+		for (; i < tree.length; i += i & -i) {
+			tree[i] += delta;
+		}
+	}
+
+	private int sum(int i) {
+		int sum = 0;
+		for (; i > 0; i -= i & -i) {
+			sum += tree[i];
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,120 @@
+package org.lru.cache;
+
+/**
+ * A cache entry as published through the concurrent table of {@link Cache},
+ * and as handed to the {@link EvictionPolicy} of its priority level.
+ * 
+ * Nodes are immutable (apart from the reference bit), a put always replaces
+ * the node mapped to its key, and so does a move to another priority level
+ * (overflow). Therefore the node identity is enough in order to tell whether a
+ * node is still the current mapping of its key.
+ * 
+ * @author pazinio
+ * 
+ * @param <K>
+ * @param <V>
+ */
+public final class Node<K, V> {
+
+	final K key;
+	final V value;
+
+	/** The ordinal of the priority level which holds this node */
+	final int level;
+
+	/** The ordinal of the priority level which the node was put with, above level once demoted */
+	final int home;
+
+	/** As calculated by the cache weigher when the node was put */
+	final int weight;
+
+	/** Set by the readers of a CLOCK level, cleared by the clock hand */
+	volatile boolean referenced;
+
+	/** Whether the node is held by the eviction policy, guarded by the eviction lock */
+	boolean linked;
+
+	/** Expiration settings in nanos, 0 if the node does not expire that way */
+	final long writeTime;
+	final long expireAfterWrite;
+	final long expireAfterAccess;
+
+	/** Set by the readers when the node expires after access */
+	volatile long accessTime;
+
+	/**
+	 * The cache clock at the last insert or replayed read (guarded by the
+	 * eviction lock), or at the first read since the reference bit was cleared
+	 * (set by the reader)
+	 */
+	volatile long touched;
+
+	/** The timer wheel bucket links and the scheduled time, guarded by the eviction lock */
+	Node<K, V> timerPrev;
+	Node<K, V> timerNext;
+	long timerTime;
+
+	Node(K key, V value, int level, int weight, long now, long expireAfterWrite, long expireAfterAccess) {
+		this.key = key;
+		this.value = value;
+		this.level = level;
+		this.home = level;
+		this.weight = weight;
+		this.writeTime = now;
+		this.accessTime = now;
+		this.expireAfterWrite = expireAfterWrite;
+		this.expireAfterAccess = expireAfterAccess;
+	}
+
+	/** The same entry, held by another priority level */
+	private Node(Node<K, V> node, int level) {
+		this.key = node.key;
+		this.value = node.value;
+		this.level = level;
+		this.home = node.home;
+		this.weight = node.weight;
+		this.writeTime = node.writeTime;
+		this.accessTime = node.accessTime;
+		this.expireAfterWrite = node.expireAfterWrite;
+		this.expireAfterAccess = node.expireAfterAccess;
+	}
+
+	Node<K, V> moveTo(int level) {
+		return new Node<K, V>(this, level);
+	}
+
+	boolean expires() {
+		return (expireAfterWrite > 0) || (expireAfterAccess > 0);
+	}
+
+	/** @return the time (as of System.nanoTime) at which the node expires, only if it expires() */
+	long expirationTime() {
+		long afterWrite  = writeTime + expireAfterWrite;
+		long afterAccess = accessTime + expireAfterAccess;
+
+		if (expireAfterAccess == 0) {
+			return afterWrite;
+		}
+		if (expireAfterWrite == 0) {
+			return afterAccess;
+		}
+		return (afterWrite - afterAccess < 0) ? afterWrite : afterAccess;
+	}
+
+	boolean isExpired(long now) {
+		return expires() && (now - expirationTime() >= 0);
+	}
+
+	public K getKey() {
+		return key;
+	}
+
+	public V getValue() {
+		return value;
+	}
+
+	@Override
+	public String toString() {
+		return String.valueOf(value);
+	}
+}
@@ -0,0 +1,82 @@
+package org.lru.cache;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
+
+/**
+ * Executors for running bean populators off the caller thread, and the timer
+ * which bounds the populators run on the caller thread.
+ * 
+ * Virtual threads suit populators which block on I/O: a virtual thread which
+ * blocks in a populator unmounts from its carrier, since the populate path of
+ * BeanFactory holds no monitor (it waits on futures only). They require JDK 21,
+ * on older runtimes a pool of platform threads is used instead.
+ * 
+ * @author pazinio
+ */
+final class PopulateExecutors {
+
+	private static final Logger logger = Logger.getLogger(PopulateExecutors.class);
+
+	private PopulateExecutors() {
+	}
+
+	/**
+	 * @param virtualThreads
+	 *            whether a virtual thread per populate is preferred over a
+	 *            fixed pool of platform threads.
+	 * @param threads
+	 *            the size of the platform threads pool.
+	 */
+	static ExecutorService newPopulateExecutor(boolean virtualThreads, int threads) {
+		if (virtualThreads) {
+			ExecutorService executor = newVirtualThreadPerTaskExecutor();
+			if (executor != null) {
+				return executor;
+			}
+			logger.warn("Cache: virtual threads are not supported by this runtime, using " + threads + " platform threads");
+		}
+		return Executors.newFixedThreadPool(threads, new PopulateThreadFactory("BeanFactory-populate-"));
+	}
+
+	/** @return a single (daemon) thread which enforces the populate deadlines */
+	static ScheduledExecutorService newDeadlineTimer() {
+		return Executors.newSingleThreadScheduledExecutor(new PopulateThreadFactory("BeanFactory-deadline-"));
+	}
+
+	/** @return a virtual thread per task executor, or null before JDK 21 */
+	static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			// Reflection, so the sources still build and run on older JDKs
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			logger.warn("Cache: failed to create a virtual thread executor", e);
+			return null;
+		}
+	}
+
+	/** Daemon threads, so that background populates never keep the JVM alive */
+	private static class PopulateThreadFactory implements ThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger(1);
+		private final String prefix;
+
+		PopulateThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
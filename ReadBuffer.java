@@ -0,0 +1,109 @@
+package org.lru.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Striped, lossy ring buffers which record reads until they are replayed on
+ * the eviction order.
+ * 
+ * A reader picks a ring by its thread id, so readers on different threads
+ * rarely touch the same cache line. A ring never blocks and never grows: when
+ * it is full, or when another reader wins the same slot, the read is simply
+ * dropped. Losing a few reads only makes the LRU order approximate, the
+ * entries themselves are never lost.
+ * 
+ * Offers may run concurrently, drains must be guarded by the owner's lock.
+ * 
+ * @author pazinio
+ * 
+ * @param <E>
+ */
+final class ReadBuffer<E> {
+
+	/** Number of reads which each ring holds, must be a power of two */
+	static final int RING_SIZE = 16;
+	private static final int RING_MASK = RING_SIZE - 1;
+
+	private static final int STRIPES = ceilingPowerOfTwo(4 * Runtime.getRuntime().availableProcessors());
+	private static final int STRIPES_MASK = STRIPES - 1;
+
+	private final Ring<E> [] rings;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	ReadBuffer() {
+		rings = new Ring[STRIPES];
+		for (int i = 0; i < rings.length; i++) {
+			rings[i] = new Ring<E>();
+		}
+	}
+
+	/**
+	 * Records a read, the read may be dropped.
+	 * 
+	 * @return <tt>true</tt> if the ring of the current thread is full and the
+	 *         buffer should be drained.
+	 */
+	boolean offer(E e) {
+		return rings[stripe()].offer(e);
+	}
+
+	/** Hands every recorded read to the consumer, guarded by the owner's lock */
+	void drainTo(Consumer<? super E> consumer) {
+		for (Ring<E> ring : rings) {
+			ring.drainTo(consumer);
+		}
+	}
+
+	private static int stripe() {
+		// Fibonacci hashing spreads the sequential thread ids
+		int h = (int) Thread.currentThread().getId() * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & STRIPES_MASK;
+	}
+
+	private static int ceilingPowerOfTwo(int x) {
+		return 1 << (32 - Integer.numberOfLeadingZeros(x - 1));
+	}
+
+	private static final class Ring<E> {
+		final AtomicLong readCounter  = new AtomicLong();
+		final AtomicLong writeCounter = new AtomicLong();
+		final AtomicReferenceArray<E> buffer = new AtomicReferenceArray<E>(RING_SIZE);
+
+		boolean offer(E e) {
+			long head = readCounter.get();
+			long tail = writeCounter.get();
+			long size = tail - head;
+
+			if (size >= RING_SIZE) {
+				return true;
+			}
+
+			// Contended slot, dropping the read is cheaper than retrying
+			if (writeCounter.compareAndSet(tail, tail + 1)) {
+				buffer.lazySet((int) tail & RING_MASK, e);
+				return size + 1 >= RING_SIZE;
+			}
+			return false;
+		}
+
+		void drainTo(Consumer<? super E> consumer) {
+			long head = readCounter.get();
+			long tail = writeCounter.get();
+
+			while (head < tail) {
+				int index = (int) head & RING_MASK;
+				E e = buffer.get(index);
+				if (e == null) {
+					// The slot was claimed but the read is not published yet
+					break;
+				}
+				buffer.lazySet(index, null);
+				consumer.accept(e);
+				head++;
+			}
+			readCounter.lazySet(head);
+		}
+	}
+}
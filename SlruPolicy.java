@@ -0,0 +1,110 @@
+package org.lru.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Segmented LRU: new nodes enter a probation segment and only a second read
+ * promotes them to the protected segment (80% of the level). A scan reads
+ * each key once, so it only churns the probation segment.
+ * 
+ * @author pazinio
+ * 
+ * @param <K>
+ * @param <V>
+ */
+final class SlruPolicy<K, V> implements EvictionPolicy<K, V> {
+
+	private int protectedCapacity;
+
+	/** Both access ordered, the eldest entry is the least recently used */
+	private final Map<K, Node<K, V>> probation = new LinkedHashMap<K, Node<K, V>>(16, 0.75f, true);
+	private final Map<K, Node<K, V>> protect   = new LinkedHashMap<K, Node<K, V>>(16, 0.75f, true);
+
+	SlruPolicy(int capacity) {
+		this.protectedCapacity = (int) (capacity * 0.8);
+	}
+
+	@Override
+	public void onInsert(Node<K, V> node) {
+		// The key may still be held when writes are applied out of order
+		if (protect.containsKey(node.key)) {
+			protect.put(node.key, node);
+		} else {
+			probation.put(node.key, node);
+		}
+	}
+
+	@Override
+	public void onUpdate(Node<K, V> prior, Node<K, V> node) {
+		if (protect.remove(prior.key, prior)) {
+			protect.put(node.key, node);
+		} else if (probation.remove(prior.key, prior)) {
+			probation.put(node.key, node);
+			onAccess(node);
+		} else {
+			onInsert(node);
+		}
+	}
+
+	@Override
+	public void onAccess(Node<K, V> node) {
+		if (protect.get(node.key) == node) {
+			return;
+		}
+
+		if (probation.remove(node.key, node)) {
+			protect.put(node.key, node);
+			demoteOverflow();
+		}
+	}
+
+	@Override
+	public void onRemove(Node<K, V> node) {
+		if (!probation.remove(node.key, node)) {
+			protect.remove(node.key, node);
+		}
+	}
+
+	@Override
+	public Node<K, V> victim() {
+		Node<K, V> victim = eldest(probation);
+		return (victim != null) ? victim : eldest(protect);
+	}
+
+	@Override
+	public void onEvict(Node<K, V> victim) {
+		onRemove(victim);
+	}
+
+	@Override
+	public int size() {
+		return probation.size() + protect.size();
+	}
+
+	@Override
+	public void setCapacity(int capacity) {
+		this.protectedCapacity = (int) (capacity * 0.8);
+		demoteOverflow();
+	}
+
+	/** The protected segment overflows back into the probation one */
+	private void demoteOverflow() {
+		while (protect.size() > protectedCapacity) {
+			Node<K, V> demoted = eldest(protect);
+			protect.remove(demoted.key);
+			probation.put(demoted.key, demoted);
+		}
+	}
+
+	private static <K, V> Node<K, V> eldest(Map<K, Node<K, V>> segment) {
+		Iterator<Node<K, V>> it = segment.values().iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+
+	@Override
+	public String toString() {
+		return "{probation=" + probation + ", protected=" + protect + "}";
+	}
+}
@@ -0,0 +1,189 @@
+package org.lru.cache;
+
+import java.util.function.Consumer;
+
+/**
+ * A hierarchical timer wheel which expires the nodes of a cache in O(1)
+ * amortized time per node, without ever scanning the cache.
+ * 
+ * Each wheel is an array of buckets (doubly linked lists of nodes) and each
+ * bucket covers a time span: about a second per bucket for the first wheel,
+ * a minute for the second, an hour for the third and so on. A node is linked
+ * into the bucket of its expiration time, in the finest wheel which can hold
+ * it. As time advances the buckets whose span has passed are drained: the
+ * nodes which are due expire, the rest (e.g. an expire-after-access node read
+ * meanwhile) are scheduled again, usually into a finer wheel.
+ * 
+ * The expiration is not precise, a node may expire up to a bucket span late.
+ * Readers check the exact expiration time of a node by themselves.
+ * 
+ * Not thread-safe, guarded by the cache eviction lock.
+ * 
+ * @author pazinio
+ * 
+ * @param <K>
+ * @param <V>
+ */
+final class TimerWheel<K, V> {
+
+	private static final int [] BUCKETS = { 64, 64, 32, 4, 1 };
+
+	/**
+	 * Powers of two, the time span of a single bucket of each wheel (in nanos).
+	 * The buckets of a wheel cover at least a bucket of the next one
+	 * (BUCKETS[i] * SPANS[i] >= SPANS[i + 1]), so that no node wraps around
+	 * its wheel.
+	 */
+	private static final long [] SPANS = {
+		1L << 30, // 1.07s
+		1L << 36, // 1.14m
+		1L << 42, // 1.22h
+		1L << 46, // 0.81d
+		BUCKETS[3] * (1L << 46), // 3.26d
+		BUCKETS[3] * (1L << 46), // 3.26d
+	};
+
+	private static final long [] SHIFT = {
+		Long.numberOfTrailingZeros(SPANS[0]),
+		Long.numberOfTrailingZeros(SPANS[1]),
+		Long.numberOfTrailingZeros(SPANS[2]),
+		Long.numberOfTrailingZeros(SPANS[3]),
+		Long.numberOfTrailingZeros(SPANS[4]),
+	};
+
+	/** Sentinels, the head of each bucket */
+	private final Node<K, V> [][] wheel;
+
+	/** The time of the last advance */
+	private long nanos;
+
+	/** The number of scheduled nodes */
+	private int size;
+
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	TimerWheel(long nanos) {
+		this.nanos = nanos;
+		this.wheel = new Node[BUCKETS.length][];
+		for (int i = 0; i < wheel.length; i++) {
+			wheel[i] = new Node[BUCKETS[i]];
+			for (int j = 0; j < wheel[i].length; j++) {
+				Node<K, V> sentinel = new Node<K, V>(null, null, -1, 0, 0L, 0L, 0L);
+				sentinel.timerPrev = sentinel;
+				sentinel.timerNext = sentinel;
+				wheel[i][j] = sentinel;
+			}
+		}
+	}
+
+	/** @return the number of scheduled nodes */
+	int size() {
+		return size;
+	}
+
+	/** Links the node into the bucket of its expiration time */
+	void schedule(Node<K, V> node) {
+		long time = node.expirationTime();
+
+		// A node which is already due goes to the current bucket, which is the
+		// first one drained on the next tick
+		if (time - nanos < 0) {
+			time = nanos;
+		}
+		node.timerTime = time;
+
+		Node<K, V> sentinel = findBucket(time);
+		link(sentinel, node);
+		size++;
+	}
+
+	/** Unlinks the node, if it is scheduled */
+	void deschedule(Node<K, V> node) {
+		if (node.timerNext != null) {
+			unlink(node);
+			size--;
+		}
+	}
+
+	/**
+	 * Advances the timer to the current time and hands every node which is due
+	 * to the consumer. The node is descheduled already when it is handed.
+	 */
+	void advance(long currentTimeNanos, Consumer<Node<K, V>> expired) {
+		long previousTimeNanos = nanos;
+		nanos = currentTimeNanos;
+
+		for (int i = 0; i < SHIFT.length; i++) {
+			long previousTicks = (previousTimeNanos >>> SHIFT[i]);
+			long currentTicks  = (currentTimeNanos >>> SHIFT[i]);
+			if ((currentTicks - previousTicks) <= 0L) {
+				break;
+			}
+			expire(i, previousTicks, currentTicks - previousTicks, expired);
+		}
+	}
+
+	/** Drains the buckets of the wheel whose span has passed */
+	private void expire(int index, long previousTicks, long delta, Consumer<Node<K, V>> expired) {
+		Node<K, V> [] buckets = wheel[index];
+		int mask = buckets.length - 1;
+
+		int start;
+		int end;
+		if (delta >= buckets.length) {
+			start = 0;
+			end   = buckets.length;
+		} else {
+			start = (int) (previousTicks & mask);
+			end   = start + (int) delta;
+		}
+
+		for (int i = start; i < end; i++) {
+			Node<K, V> sentinel = buckets[i & mask];
+			Node<K, V> node = sentinel.timerNext;
+			sentinel.timerPrev = sentinel;
+			sentinel.timerNext = sentinel;
+
+			while (node != sentinel) {
+				Node<K, V> next = node.timerNext;
+				node.timerPrev = null;
+				node.timerNext = null;
+				size--;
+
+				if (node.isExpired(nanos)) {
+					expired.accept(node);
+				} else {
+					schedule(node);
+				}
+				node = next;
+			}
+		}
+	}
+
+	private Node<K, V> findBucket(long time) {
+		long duration = time - nanos;
+		int length = wheel.length - 1;
+		for (int i = 0; i < length; i++) {
+			if (duration < SPANS[i + 1]) {
+				long ticks = (time >>> SHIFT[i]);
+				int index = (int) (ticks & (wheel[i].length - 1));
+				return wheel[i][index];
+			}
+		}
+		return wheel[length][0];
+	}
+
+	private static <K, V> void link(Node<K, V> sentinel, Node<K, V> node) {
+		node.timerPrev = sentinel.timerPrev;
+		node.timerNext = sentinel;
+
+		sentinel.timerPrev.timerNext = node;
+		sentinel.timerPrev = node;
+	}
+
+	private static <K, V> void unlink(Node<K, V> node) {
+		node.timerPrev.timerNext = node.timerNext;
+		node.timerNext.timerPrev = node.timerPrev;
+		node.timerPrev = null;
+		node.timerNext = null;
+	}
+}
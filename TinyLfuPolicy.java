@@ -0,0 +1,147 @@
+package org.lru.cache;
+
+/**
+ * W-TinyLFU admission in front of the eviction policy of a priority level.
+ * 
+ * New nodes enter a small LRU window (1% of the level). A node which falls
+ * off the window is a candidate for the main policy: when the main policy is
+ * full the candidate is admitted only if the frequency sketch estimates it as
+ * more popular than the main policy victim, otherwise the candidate itself is
+ * evicted. So a burst of one-off keys only churns the window and does not
+ * flush the popular entries out of the level.
+ * 
+ * @author pazinio
+ * 
+ * @param <K>
+ * @param <V>
+ */
+final class TinyLfuPolicy<K, V> implements EvictionPolicy<K, V> {
+
+	private final LruPolicy<K, V> window;
+	private final EvictionPolicy<K, V> main;
+	private final FrequencySketch<K> sketch;
+
+	private int windowCapacity;
+	private int mainCapacity;
+
+	/** Set by victim() when the main policy victim wins over the window candidate */
+	private Node<K, V> admitted;
+
+	TinyLfuPolicy(int capacity, EvictionPolicy.Factory eviction) {
+		this.windowCapacity = (capacity == 0) ? 0 : Math.max(1, capacity / 100);
+		this.mainCapacity   = capacity - windowCapacity;
+
+		this.window = new LruPolicy<K, V>();
+		this.main   = eviction.create(mainCapacity);
+		this.sketch = new FrequencySketch<K>(capacity);
+	}
+
+	@Override
+	public void onInsert(Node<K, V> node) {
+		sketch.increment(node.key);
+		if (window.contains(node)) {
+			// Still held, the writes of the key were applied out of order
+			window.onInsert(node);
+			return;
+		}
+		window.onInsert(node);
+
+		// While the main policy has room every window overflow is admitted
+		while (window.size() > windowCapacity && main.size() < mainCapacity) {
+			Node<K, V> candidate = window.victim();
+			window.onEvict(candidate);
+			main.onInsert(candidate);
+		}
+	}
+
+	@Override
+	public void onUpdate(Node<K, V> prior, Node<K, V> node) {
+		sketch.increment(node.key);
+		policyOf(prior).onUpdate(prior, node);
+	}
+
+	@Override
+	public void onAccess(Node<K, V> node) {
+		sketch.increment(node.key);
+		policyOf(node).onAccess(node);
+	}
+
+	@Override
+	public void onRemove(Node<K, V> node) {
+		// Both may hold the key for a while (writes applied out of order),
+		// each one ignores a node it does not hold
+		window.onRemove(node);
+		main.onRemove(node);
+	}
+
+	@Override
+	public Node<K, V> victim() {
+		admitted = null;
+
+		if (window.size() <= windowCapacity) {
+			Node<K, V> victim = main.victim();
+			return (victim != null) ? victim : window.victim();
+		}
+
+		Node<K, V> candidate = window.victim();
+		Node<K, V> victim    = main.victim();
+		if (victim == null) {
+			return candidate;
+		}
+
+		if (sketch.frequency(candidate.key) > sketch.frequency(victim.key)) {
+			admitted = candidate;
+			return victim;
+		}
+		return candidate;
+	}
+
+	@Override
+	public Node<K, V> peek() {
+		Node<K, V> victim = main.peek();
+		if (window.size() <= windowCapacity) {
+			return (victim != null) ? victim : window.peek();
+		}
+
+		Node<K, V> candidate = window.peek();
+		if (victim == null || sketch.frequency(candidate.key) <= sketch.frequency(victim.key)) {
+			return candidate;
+		}
+		return victim;
+	}
+
+	@Override
+	public void onEvict(Node<K, V> victim) {
+		window.onEvict(victim);
+		main.onEvict(victim);
+
+		if (admitted != null) {
+			window.onEvict(admitted);
+			main.onInsert(admitted);
+			admitted = null;
+		}
+	}
+
+	@Override
+	public int size() {
+		return window.size() + main.size();
+	}
+
+	/** The window overflow is admitted or evicted by the next victims, the sketch keeps its size */
+	@Override
+	public void setCapacity(int capacity) {
+		this.windowCapacity = (capacity == 0) ? 0 : Math.max(1, capacity / 100);
+		this.mainCapacity   = capacity - windowCapacity;
+		main.setCapacity(mainCapacity);
+	}
+
+	/** A key is held either by the window or by the main policy */
+	private EvictionPolicy<K, V> policyOf(Node<K, V> node) {
+		return window.contains(node) ? window : main;
+	}
+
+	@Override
+	public String toString() {
+		return "{window=" + window + ", main=" + main + "}";
+	}
+}
@@ -0,0 +1,127 @@
+package org.lru.cache;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 2Q (Johnson &amp; Shasha): new nodes enter a FIFO (A1in, 25% of the level)
+ * and are evicted from it without regard to their reads. The keys evicted
+ * from A1in are remembered in a ghost queue (A1out, up to 50% of the level);
+ * only a key which is inserted again while it is remembered gets into the main
+ * LRU queue (Am). A scan therefore never reaches Am.
+ * 
+ * @author pazinio
+ * 
+ * @param <K>
+ * @param <V>
+ */
+final class TwoQueuePolicy<K, V> implements EvictionPolicy<K, V> {
+
+	private int inCapacity;
+	private int outCapacity;
+
+	/** Insertion ordered, FIFO */
+	private final Map<K, Node<K, V>> in  = new LinkedHashMap<K, Node<K, V>>();
+
+	/** Ghost keys, insertion ordered */
+	private final Set<K> out = new LinkedHashSet<K>();
+
+	/** Access ordered, the eldest entry is the least recently used */
+	private final Map<K, Node<K, V>> main = new LinkedHashMap<K, Node<K, V>>(16, 0.75f, true);
+
+	TwoQueuePolicy(int capacity) {
+		setCapacity(capacity);
+	}
+
+	@Override
+	public void onInsert(Node<K, V> node) {
+		// The key may still be held when writes are applied out of order
+		if (in.containsKey(node.key)) {
+			in.put(node.key, node);
+		} else if (main.containsKey(node.key) || out.remove(node.key)) {
+			main.put(node.key, node);
+		} else {
+			in.put(node.key, node);
+		}
+	}
+
+	@Override
+	public void onUpdate(Node<K, V> prior, Node<K, V> node) {
+		// In place, an update keeps the position of the prior node
+		if (in.get(prior.key) == prior) {
+			in.put(node.key, node);
+		} else if (main.get(prior.key) == prior) {
+			main.put(node.key, node);
+		} else {
+			onInsert(node);
+		}
+	}
+
+	@Override
+	public void onAccess(Node<K, V> node) {
+		// Reads of A1in are correlated references, they do not count
+		if (!in.containsKey(node.key)) {
+			main.get(node.key);
+		}
+	}
+
+	@Override
+	public void onRemove(Node<K, V> node) {
+		if (!in.remove(node.key, node)) {
+			main.remove(node.key, node);
+		}
+	}
+
+	@Override
+	public Node<K, V> victim() {
+		if (in.size() > inCapacity || main.isEmpty()) {
+			Node<K, V> victim = eldest(in);
+			if (victim != null) {
+				return victim;
+			}
+		}
+		return eldest(main);
+	}
+
+	@Override
+	public void onEvict(Node<K, V> victim) {
+		if (in.remove(victim.key, victim)) {
+			out.add(victim.key);
+			trimGhosts();
+		} else {
+			main.remove(victim.key, victim);
+		}
+	}
+
+	@Override
+	public int size() {
+		return in.size() + main.size();
+	}
+
+	@Override
+	public void setCapacity(int capacity) {
+		this.inCapacity  = Math.max(1, capacity / 4);
+		this.outCapacity = Math.max(1, capacity / 2);
+		trimGhosts();
+	}
+
+	private void trimGhosts() {
+		for (Iterator<K> eldest = out.iterator(); out.size() > outCapacity;) {
+			eldest.next();
+			eldest.remove();
+		}
+	}
+
+	private static <K, V> Node<K, V> eldest(Map<K, Node<K, V>> queue) {
+		Iterator<Node<K, V>> it = queue.values().iterator();
+		return it.hasNext() ? it.next() : null;
+	}
+
+	@Override
+	public String toString() {
+		return "{in=" + in + ", main=" + main + "}";
+	}
+}
@@ -0,0 +1,18 @@
+package org.lru.cache;
+
+/**
+ * Calculates the weight of a cache entry, e.g. its estimated size in bytes.
+ * 
+ * The weight is calculated once, when the entry is put, and is counted against
+ * the maximum weight of the priority level (see {@link CacheSpec#maximumWeight}).
+ * 
+ * @author pazinio
+ * 
+ * @param <K>
+ * @param <V>
+ */
+public interface Weigher<K, V> {
+
+	/** @return the weight of the entry, never negative */
+	int weigh(K key, V value);
+}